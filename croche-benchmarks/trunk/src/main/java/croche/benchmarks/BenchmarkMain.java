@@ -0,0 +1,65 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.benchmarks;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The BenchmarkMain runs the benchmarks with the gc profiler so the allocation rate is reported next to the
+ * throughput of each benchmark, the results are written to a time stamped json file in the results directory so
+ * runs can be compared over time e.g. with the jmh visualizer. Any of the usual jmh command line options can be
+ * given e.g. java -jar target/benchmarks.jar MergeBenchmark -p shape=MANY_SMALL -f 1
+ * @version $Id$
+ * @author conorroche
+ */
+public final class BenchmarkMain {
+
+	/** The system property holding the directory the json results are written to */
+	public static final String RESULTS_PROPERTY = "croche.benchmarks.results";
+
+	private BenchmarkMain() {
+		super();
+	}
+
+	/**
+	 * This runs the benchmarks
+	 * @param args The jmh command line options
+	 * @throws Exception If the benchmarks could not be run
+	 */
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+		if (commandLine.getProfilers().isEmpty()) {
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			File resultsDir = new File(System.getProperty(RESULTS_PROPERTY, "benchmark-results"));
+			if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+				throw new IllegalStateException("Failed to create the results directory: " + resultsDir.getAbsolutePath());
+			}
+			String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+			options.resultFormat(ResultFormatType.JSON).result(new File(resultsDir, "jmh-" + stamp + ".json").getPath());
+		}
+		new Runner(options.build()).run();
+	}
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.benchmarks;
+
+import java.lang.reflect.Field;
+
+/**
+ * The Mojos class configures mojos and their nested config objects the same way maven does by setting their
+ * fields directly, the plugins only expose setters for some of their parameters.
+ * @version $Id$
+ * @author conorroche
+ */
+public final class Mojos {
+
+	private Mojos() {
+		super();
+	}
+
+	/**
+	 * This sets the given field of the given object
+	 * @param target The mojo or config object
+	 * @param name The name of the field, it may be declared by a super class
+	 * @param value The value to set
+	 * @return The target so several fields can be set in one statement
+	 * @param <T> The type of the target
+	 */
+	public static <T> T set(T target, String name, Object value) {
+		for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+			try {
+				Field field = type.getDeclaredField(name);
+				field.setAccessible(true);
+				field.set(target, value);
+				return target;
+			} catch (NoSuchFieldException nsfe) {
+				// look in the super class
+			} catch (IllegalAccessException iae) {
+				throw new IllegalStateException("Failed to set the field: " + name + " of: " + type.getName(), iae);
+			}
+		}
+		throw new IllegalArgumentException("There is no field: " + name + " in: " + target.getClass().getName());
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.benchmarks;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The QuietLog is the log given to the mojos being benchmarked, it only prints errors so logging to the console
+ * does not skew the results while still showing why a benchmark failed.
+ * @version $Id$
+ * @author conorroche
+ */
+public class QuietLog implements Log {
+
+	public boolean isDebugEnabled() {
+		return false;
+	}
+
+	public void debug(CharSequence content) {
+		// not logged
+	}
+
+	public void debug(CharSequence content, Throwable error) {
+		// not logged
+	}
+
+	public void debug(Throwable error) {
+		// not logged
+	}
+
+	public boolean isInfoEnabled() {
+		return false;
+	}
+
+	public void info(CharSequence content) {
+		// not logged
+	}
+
+	public void info(CharSequence content, Throwable error) {
+		// not logged
+	}
+
+	public void info(Throwable error) {
+		// not logged
+	}
+
+	public boolean isWarnEnabled() {
+		return false;
+	}
+
+	public void warn(CharSequence content) {
+		// not logged
+	}
+
+	public void warn(CharSequence content, Throwable error) {
+		// not logged
+	}
+
+	public void warn(Throwable error) {
+		// not logged
+	}
+
+	public boolean isErrorEnabled() {
+		return true;
+	}
+
+	public void error(CharSequence content) {
+		System.err.println("[ERROR] " + content);
+	}
+
+	public void error(CharSequence content, Throwable error) {
+		error(content);
+		error.printStackTrace();
+	}
+
+	public void error(Throwable error) {
+		error.printStackTrace();
+	}
+
+}
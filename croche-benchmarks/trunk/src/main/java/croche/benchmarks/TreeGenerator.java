@@ -0,0 +1,164 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The TreeGenerator generates a source tree of db upgrade scripts laid out the way the db upgrade plugin expects
+ * i.e. &lt;root&gt;/&lt;nested dirs&gt;/&lt;core|www&gt;-project-N/upgrade/&lt;sprint version&gt;.sql. The content is generated
+ * from a fixed seed so every run benchmarks exactly the same tree, a tree is only generated once and reused by
+ * later runs until the shape or scale changes.
+ * @version $Id$
+ * @author conorroche
+ */
+public final class TreeGenerator {
+
+	/** The system property holding the factor the number of projects and sprints of each shape is scaled by */
+	public static final String SCALE_PROPERTY = "croche.benchmarks.scale";
+	/** The system property holding the directory the trees are generated in */
+	public static final String DIR_PROPERTY = "croche.benchmarks.dir";
+	/** The names of the directories holding www projects, every other project is a core one */
+	public static final String WWW_PREFIX = "www-";
+	/** The names of the directories holding core projects */
+	public static final String CORE_PREFIX = "core-";
+
+	private static final String MARKER = ".generated";
+	private static final long SEED = 20120101L;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+	private static final String[] WORDS = { "select", "insert", "update", "alter", "table", "column", "index", "varchar", "null", "where",
+			"account", "journey", "payment", "vehicle", "route" };
+	private static final String[] ACCENTED = { "café", "naïve", "Zürich", "Ærøskøbing", "señor", "Kraków" };
+
+	private TreeGenerator() {
+		super();
+	}
+
+	/**
+	 * This gets the root directory of the tree of the given shape generating it if it does not exist yet
+	 * @param shape The shape of the tree
+	 * @return The root directory of the tree
+	 * @throws IOException If the tree could not be generated
+	 */
+	public static File getTree(TreeShape shape) throws IOException {
+		double scale = Double.parseDouble(System.getProperty(SCALE_PROPERTY, "1"));
+		File baseDir = new File(System.getProperty(DIR_PROPERTY, new File(System.getProperty("java.io.tmpdir"), "croche-benchmarks").getPath()));
+		File root = new File(baseDir, shape.name().toLowerCase() + "-" + scale);
+		if (new File(root, MARKER).isFile()) {
+			return root;
+		}
+		if (root.exists()) {
+			// a previous run was interrupted while generating it
+			FileUtils.deleteDirectory(root);
+		}
+		generate(root, shape, scale);
+		FileUtils.touch(new File(root, MARKER));
+		return root;
+	}
+
+	/**
+	 * This gets the sprint versions used for the scripts of each project, oldest first
+	 * @param count The number of versions
+	 * @return The sprint versions
+	 */
+	public static List<String> getSprintVersions(int count) {
+		List<String> versions = new ArrayList<String>(count);
+		for (int year = 2011; versions.size() < count; year++) {
+			for (int quarter = 1; quarter <= 4 && versions.size() < count; quarter++) {
+				for (int section = 1; section <= 4 && versions.size() < count; section++) {
+					versions.add(year + "-Q" + quarter + "." + section + ".0");
+				}
+			}
+		}
+		return versions;
+	}
+
+	private static void generate(File root, TreeShape shape, double scale) throws IOException {
+		Random random = new Random(SEED);
+		int projects = Math.max(1, (int) Math.round(shape.projects * scale));
+		// the sprint versions run out at the current year
+		int sprints = Math.min(Math.max(1, (int) Math.round(shape.sprints * scale)), 240);
+		List<String> versions = getSprintVersions(sprints);
+		StringBuilder content = new StringBuilder(shape.maxSize);
+		for (int p = 0; p < projects; p++) {
+			File dir = root;
+			for (int d = 0; d < shape.depth; d++) {
+				dir = new File(dir, "level" + d + "-" + (p % 3));
+			}
+			String project = (p % 2 == 0 ? CORE_PREFIX : WWW_PREFIX) + "project-" + p;
+			File upgradeDir = new File(new File(dir, project), "upgrade");
+			if (!upgradeDir.mkdirs()) {
+				throw new IOException("Failed to create the directory: " + upgradeDir.getAbsolutePath());
+			}
+			for (int s = 0; s < versions.size(); s++) {
+				int size = shape.minSize + (shape.maxSize > shape.minSize ? random.nextInt(shape.maxSize - shape.minSize) : 0);
+				buildContent(content, random, size, shape == TreeShape.MIXED_ENCODINGS);
+				writeScript(new File(upgradeDir, versions.get(s) + ".sql"), content, shape == TreeShape.MIXED_ENCODINGS ? s % 4 : 0);
+			}
+		}
+	}
+
+	private static void buildContent(StringBuilder content, Random random, int size, boolean accented) {
+		content.setLength(0);
+		while (content.length() < size) {
+			content.append("-- change ").append(random.nextInt(100000)).append('\n');
+			int words = 4 + random.nextInt(12);
+			for (int w = 0; w < words; w++) {
+				content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+				if (accented && random.nextInt(8) == 0) {
+					content.append('\'').append(ACCENTED[random.nextInt(ACCENTED.length)]).append("' ");
+				}
+			}
+			content.append(";\n");
+		}
+	}
+
+	private static void writeScript(File file, StringBuilder content, int encoding) throws IOException {
+		OutputStream output = null;
+		try {
+			output = new BufferedOutputStream(new FileOutputStream(file));
+			switch (encoding) {
+				case 1:
+					output.write(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF });
+					output.write(content.toString().getBytes(UTF_8));
+					break;
+				case 2:
+					output.write(new byte[] { (byte) 0xFF, (byte) 0xFE });
+					output.write(content.toString().getBytes(UTF_16LE));
+					break;
+				case 3:
+					output.write(new byte[] { (byte) 0xFE, (byte) 0xFF });
+					output.write(content.toString().getBytes(UTF_16BE));
+					break;
+				default:
+					output.write(content.toString().getBytes(UTF_8));
+			}
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.benchmarks;
+
+/**
+ * The TreeShape is the shape of a generated source tree of db upgrade scripts, each shape stresses a different part
+ * of the engines being benchmarked. The counts are scaled by the croche.benchmarks.scale system property.
+ * @version $Id$
+ * @author conorroche
+ */
+public enum TreeShape {
+
+	/** Lots of small scripts where the per file overhead dominates */
+	MANY_SMALL(100, 240, 0, 512, 4096),
+	/** 30k small scripts, the number of files the ordering names are matched against in large builds */
+	MANY_FILES(125, 240, 0, 256, 1024),
+	/** 16 scripts of 64 MB, a 1 GB merge where the copy throughput dominates */
+	FEW_HUGE(4, 4, 0, 64 * 1024 * 1024, 64 * 1024 * 1024),
+	/** Scripts in deeply nested directories where walking the tree dominates */
+	DEEP_NESTING(40, 60, 10, 512, 4096),
+	/** Scripts in UTF-8 with and without a byte order mark and in UTF-16 with non ascii content */
+	MIXED_ENCODINGS(40, 60, 0, 2048, 16384);
+
+	final int projects;
+	final int sprints;
+	final int depth;
+	final int minSize;
+	final int maxSize;
+
+	private TreeShape(int projects, int sprints, int depth, int minSize, int maxSize) {
+		this.projects = projects;
+		this.sprints = sprints;
+		this.depth = depth;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import croche.benchmarks.QuietLog;
+import croche.benchmarks.TreeGenerator;
+import croche.benchmarks.TreeShape;
+
+/**
+ * The UpgradeScriptBenchmark measures the two phases of the CreateUpgradeScriptMojo against a generated tree of
+ * upgrade scripts: scanning the tree to build the sprint data and creating the upgrade scripts of every sprint,
+ * either forced or when every sprint is already up to date so only the fingerprints are checked.
+ * @version $Id$
+ * @author conorroche
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpgradeScriptBenchmark {
+
+	@Param({ "MANY_SMALL", "FEW_HUGE", "DEEP_NESTING", "MIXED_ENCODINGS" })
+	public TreeShape shape;
+
+	private File sourceDir;
+	private File targetDir;
+	private CreateUpgradeScriptMojo scannedMojo;
+
+	/**
+	 * This generates the tree of upgrade scripts and scans it for the sprint files benchmark
+	 * @throws Exception If the tree could not be generated or scanned
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.sourceDir = TreeGenerator.getTree(this.shape);
+		this.targetDir = Files.createTempDirectory("upgrade-script-benchmark").toFile();
+		this.scannedMojo = createMojo(this.sourceDir, this.targetDir);
+		this.scannedMojo.force = true;
+		this.scannedMojo.buildSprintData();
+	}
+
+	/**
+	 * This removes the created upgrade scripts
+	 * @throws IOException If they could not be removed
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.targetDir);
+	}
+
+	/**
+	 * This scans the tree and groups the upgrade scripts by sprint
+	 * @return The mojo holding the sprint data
+	 * @throws MojoExecutionException If the tree could not be scanned
+	 */
+	@Benchmark
+	public CreateUpgradeScriptMojo buildSprintData() throws MojoExecutionException {
+		// the sprint data is added to so every scan needs a new mojo
+		CreateUpgradeScriptMojo mojo = createMojo(this.sourceDir, this.targetDir);
+		mojo.buildSprintData();
+		return mojo;
+	}
+
+	/**
+	 * This creates the all in one, www and core upgrade scripts of every sprint
+	 * @throws MojoExecutionException If the upgrade scripts could not be created
+	 */
+	@Benchmark
+	public void createSprintFiles() throws MojoExecutionException {
+		this.scannedMojo.createUpgradeScripts();
+	}
+
+	/**
+	 * This checks the fingerprint of every sprint when all of them are up to date
+	 * @param upToDate The state holding the sprints that were already created
+	 * @throws MojoExecutionException If the upgrade scripts could not be checked
+	 */
+	@Benchmark
+	public void createSprintFilesUpToDate(UpToDate upToDate) throws MojoExecutionException {
+		upToDate.mojo.createUpgradeScripts();
+	}
+
+	/**
+	 * The UpToDate state holds a mojo whose sprints were created when the state was set up
+	 */
+	@State(Scope.Benchmark)
+	public static class UpToDate {
+
+		private File targetDir;
+		CreateUpgradeScriptMojo mojo;
+
+		/**
+		 * This creates the upgrade scripts of every sprint once
+		 * @param benchmark The benchmark holding the generated tree
+		 * @throws Exception If the upgrade scripts could not be created
+		 */
+		@Setup(Level.Trial)
+		public void setUp(UpgradeScriptBenchmark benchmark) throws Exception {
+			this.targetDir = Files.createTempDirectory("upgrade-script-benchmark").toFile();
+			this.mojo = createMojo(benchmark.sourceDir, this.targetDir);
+			this.mojo.buildSprintData();
+			this.mojo.createUpgradeScripts();
+		}
+
+		/**
+		 * This removes the created upgrade scripts
+		 * @throws IOException If they could not be removed
+		 */
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			FileUtils.deleteDirectory(this.targetDir);
+		}
+	}
+
+	static CreateUpgradeScriptMojo createMojo(File sourceDir, File targetDir) {
+		CreateUpgradeScriptMojo mojo = new CreateUpgradeScriptMojo();
+		mojo.setLog(new QuietLog());
+		mojo.sourceDir = sourceDir;
+		mojo.targetDir = targetDir;
+		mojo.includes = new String[] { "**/*.sql" };
+		mojo.separator = "-- #{grandparent.name}/#{file.name}\\n";
+		mojo.encoding = "UTF-8";
+		mojo.coreDirs = new String[] { TreeGenerator.CORE_PREFIX };
+		mojo.wwwDirs = new String[] { TreeGenerator.WWW_PREFIX };
+		mojo.allInOneFileName = "upgrade-all.sql";
+		mojo.wwwFileName = "upgrade-www.sql";
+		mojo.coreFileName = "upgrade-core.sql";
+		mojo.progressInterval = 5000;
+		return mojo;
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import croche.benchmarks.Mojos;
+import croche.benchmarks.QuietLog;
+import croche.benchmarks.TreeGenerator;
+import croche.benchmarks.TreeShape;
+import croche.maven.shared.FileScanner;
+
+/**
+ * The MergeBenchmark measures the phases of the MergeMojo against a generated source tree: scanning the source
+ * directory, matching the file names against the ordering names with the OrderingMatcher, with its compiled automaton
+ * forced on and with the String.contains loop it replaced, and whole merges written by the MergeWriter and with the
+ * decode and encode loop the byte level merge replaced. The number of ordering names is a
+ * parameter so the small lists of the usage docs can be compared with the lists of a few hundred names that order
+ * scripts by sprint, MANY_FILES with 200 names is the 30k files case the OrderingMatcher was written for and FEW_HUGE
+ * is a 1 GB merge, raise the croche.benchmarks.scale to merge several GB. The shared benchmarks write a full, a
+ * filtered and a gzip compressed target file from the same tree in one execution reading each file once and in
+ * three executions reading each file for every target file.
+ * The benchmarks live in the package of the plugin so they can drive its package private classes directly.
+ * @version $Id$
+ * @author conorroche
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+	// tokens from the usage docs that never match the generated names, the rest of the names are sprint versions
+	private static final List<String> DOC_ORDERING_NAMES = Arrays.asList("create-schema", "schema-objects", "indices", "data");
+
+	@Param({ "MANY_SMALL", "MANY_FILES", "FEW_HUGE", "DEEP_NESTING", "MIXED_ENCODINGS" })
+	public TreeShape shape;
+
+	@Param({ "8", "16", "28", "64", "200" })
+	public int orderingNameCount;
+
+	private List<String> orderingNames;
+	private OrderingMatcher orderingAutomaton;
+
+	private File sourceDir;
+	private File targetDir;
+	private FileScanner scanner;
+	private OrderingMatcher orderingMatcher;
+	private List<File> files;
+	private String[] fileNames;
+	private MergeMojo streamMojo;
+	private MergeMojo sharedMojo;
+	private MergeMojo[] separateMojos;
+
+	/**
+	 * This generates the source tree and configures the mojos
+	 * @throws IOException If the tree could not be generated
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.sourceDir = TreeGenerator.getTree(this.shape);
+		this.targetDir = Files.createTempDirectory("merge-benchmark").toFile();
+		this.orderingNames = getOrderingNames(this.orderingNameCount);
+		Merge merge = createMerge("merged");
+		this.scanner = new FileScanner(merge.getIncludesCSV(), merge.getExcludesCSV(), new QuietLog());
+		this.orderingMatcher = new OrderingMatcher(this.orderingNames);
+		this.orderingAutomaton = new OrderingMatcher(this.orderingNames, 0);
+		this.files = scan();
+		List<String> names = new ArrayList<String>();
+		for (File file : this.files) {
+			names.add(file.getName());
+		}
+		this.fileNames = names.toArray(new String[names.size()]);
+		this.streamMojo = createMojo(merge);
+		Merge[] variants = createVariants();
+		this.sharedMojo = createMojo(variants);
+		this.separateMojos = new MergeMojo[variants.length];
+		for (int i = 0; i < variants.length; i++) {
+			this.separateMojos[i] = createMojo(variants[i]);
+		}
+	}
+
+	/**
+	 * This removes the merged target files
+	 * @throws IOException If they could not be removed
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(this.targetDir);
+	}
+
+	/**
+	 * This scans the source tree for the files to merge
+	 * @return The matching files
+	 * @throws IOException If the tree could not be scanned
+	 */
+	@Benchmark
+	public List<File> scan() throws IOException {
+		final List<File> files = new ArrayList<File>();
+		this.scanner.scan(this.sourceDir, new FileScanner.Callback() {
+
+			public void found(File file) {
+				files.add(file);
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * This matches every scanned file name against the ordering names with the OrderingMatcher as the merge uses it
+	 * @param blackhole The sink for the matched names
+	 */
+	@Benchmark
+	public void orderMatcher(Blackhole blackhole) {
+		for (String name : this.fileNames) {
+			blackhole.consume(this.orderingMatcher.matchName(name));
+		}
+	}
+
+	/**
+	 * This matches every scanned file name against the ordering names with the compiled automaton whatever the
+	 * number of ordering names
+	 * @param blackhole The sink for the matched names
+	 */
+	@Benchmark
+	public void orderAutomaton(Blackhole blackhole) {
+		for (String name : this.fileNames) {
+			blackhole.consume(this.orderingAutomaton.matchName(name));
+		}
+	}
+
+	/**
+	 * This matches every scanned file name against the ordering names calling String.contains for each of them in
+	 * order, the way files were ordered before the OrderingMatcher
+	 * @param blackhole The sink for the matched names
+	 */
+	@Benchmark
+	public void orderContainsLoop(Blackhole blackhole) {
+		for (String name : this.fileNames) {
+			String match = null;
+			for (String orderingName : this.orderingNames) {
+				if (name.contains(orderingName)) {
+					match = orderingName;
+					break;
+				}
+			}
+			blackhole.consume(match);
+		}
+	}
+
+	/**
+	 * This runs a whole forced merge of the tree
+	 * @throws Exception If the merge failed
+	 */
+	@Benchmark
+	public void mergeStream() throws Exception {
+		this.streamMojo.execute();
+	}
+
+	/**
+	 * This appends every scanned file to a target file decoding it and encoding it again through a buffered writer,
+	 * the way files were merged before they were appended as raw bytes. The files are appended in the order they
+	 * were scanned as ordering them is measured by the order benchmarks.
+	 * @throws IOException If a file could not be appended
+	 */
+	@Benchmark
+	public void mergeCharLoop() throws IOException {
+		Writer output = null;
+		try {
+			output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(this.targetDir, "char-loop.sql")), "UTF-8"));
+			for (File file : this.files) {
+				output.write("-- " + file.getPath() + "\n");
+				InputStream input = null;
+				try {
+					input = new FileInputStream(file);
+					IOUtils.copy(input, output, "UTF-8");
+				} finally {
+					IOUtils.closeQuietly(input);
+				}
+			}
+			output.close();
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * This runs a forced execution writing the full, filtered and compressed target files of the tree reading
+	 * each file once
+	 * @throws Exception If the merges failed
+	 */
+	@Benchmark
+	public void mergeShared() throws Exception {
+		this.sharedMojo.execute();
+	}
+
+	/**
+	 * This runs a forced execution for each of the full, filtered and compressed target files of the tree so every
+	 * file is read once for each target file it is appended to
+	 * @throws Exception If the merges failed
+	 */
+	@Benchmark
+	public void mergeSeparately() throws Exception {
+		for (MergeMojo mojo : this.separateMojos) {
+			mojo.execute();
+		}
+	}
+
+	/**
+	 * This creates the merges of the shared benchmarks: the full variant, a variant filtered to the www projects and
+	 * a gzip compressed variant
+	 * @return The merges
+	 */
+	private Merge[] createVariants() {
+		Merge full = createMerge("merged");
+		Mojos.set(full, "targetFile", new File(this.targetDir, "full.sql"));
+		Merge filtered = createMerge("merged");
+		Mojos.set(filtered, "targetFile", new File(this.targetDir, "filtered.sql"));
+		Mojos.set(filtered, "includes", new String[] { "**/" + TreeGenerator.WWW_PREFIX + "*/**/*.sql" });
+		Merge compressed = createMerge("merged");
+		Mojos.set(compressed, "targetFile", new File(this.targetDir, "compressed.sql.gz"));
+		Mojos.set(compressed, "compression", "gzip");
+		return new Merge[] { full, filtered, compressed };
+	}
+
+	private Merge createMerge(String name) {
+		Merge merge = new Merge();
+		Mojos.set(merge, "targetFile", new File(this.targetDir, name + ".sql"));
+		Mojos.set(merge, "sourceDirs", new File[] { this.sourceDir });
+		Mojos.set(merge, "includes", new String[] { "**/*.sql" });
+		Mojos.set(merge, "nameContainsOrderings", this.orderingNames.toArray(new String[this.orderingNames.size()]));
+		Mojos.set(merge, "separator", "-- #{file.path}\\n");
+		merge.setIncremental(false);
+		merge.setDetectEncoding(this.shape == TreeShape.MIXED_ENCODINGS);
+		return merge;
+	}
+
+	/**
+	 * This gets the given number of ordering names, the names from the usage docs followed by the names of sprints
+	 * so each generated script matches at most one of them, scripts of later sprints match none of them
+	 * @param count The number of ordering names
+	 * @return The ordering names
+	 */
+	private static List<String> getOrderingNames(int count) {
+		List<String> names = new ArrayList<String>(DOC_ORDERING_NAMES.subList(0, Math.min(count, DOC_ORDERING_NAMES.size())));
+		for (String version : TreeGenerator.getSprintVersions(count - names.size())) {
+			// drop the patch so the name is what a build ordering its scripts by sprint would list
+			names.add(version.substring(0, version.lastIndexOf('.')) + ".");
+		}
+		return names;
+	}
+
+	private static MergeMojo createMojo(Merge... merges) {
+		MergeMojo mojo = new MergeMojo();
+		mojo.setLog(new QuietLog());
+		Mojos.set(mojo, "merges", merges);
+		Mojos.set(mojo, "force", Boolean.TRUE);
+		Mojos.set(mojo, "progressInterval", Long.valueOf(5000));
+		return mojo;
+	}
+
+}
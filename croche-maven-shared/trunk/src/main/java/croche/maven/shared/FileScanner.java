@@ -0,0 +1,254 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * The FileScanner finds the files under a directory that match a set of ant style include and exclude patterns,
+ * it matches files the same way as plexus FileUtils.getFiles but the patterns are compiled once, directories
+ * that can not contain a matching file are not descended into and matching files are passed to a callback
+ * as they are found rather than collected into a list. Like the plexus scanner, directories that can not be read are
+ * skipped with a warning rather than failing the scan. Instances are immutable and can be shared between threads.
+ * @version $Id$
+ * @author conorroche
+ */
+public class FileScanner {
+
+	private static final String ALL_BELOW = File.separator + "**";
+
+	/**
+	 * The Callback receives each matching file found by a scan
+	 */
+	public interface Callback {
+
+		/**
+		 * This is called for each matching file in the order they are found
+		 * @param file The matching file
+		 * @throws IOException If the file could not be processed, this stops the scan
+		 */
+		void found(File file) throws IOException;
+	}
+
+	private final Log log;
+	private final String[] includes;
+	private final String[] excludes;
+	// the directory patterns of excludes that exclude everything below a directory e.g. **/.svn/**
+	private final String[] excludedDirs;
+
+	/**
+	 * This creates a FileScanner
+	 * @param includesCSV The comma separated list of include patterns
+	 * @param excludesCSV The comma separated list of exclude patterns, may be null
+	 * @param log The log to warn of the directories and files that could not be read
+	 */
+	public FileScanner(String includesCSV, String excludesCSV, Log log) {
+		this.log = log;
+		this.includes = normalisePatterns(includesCSV);
+		this.excludes = normalisePatterns(excludesCSV);
+		List<String> excludedDirs = new ArrayList<String>();
+		for (String exclude : this.excludes) {
+			if (exclude.endsWith(ALL_BELOW)) {
+				excludedDirs.add(exclude.substring(0, exclude.length() - ALL_BELOW.length()));
+			}
+		}
+		this.excludedDirs = excludedDirs.toArray(new String[excludedDirs.size()]);
+	}
+
+	/**
+	 * This scans the given directory and all of its sub directories for matching files
+	 * @param baseDir The directory to scan
+	 * @param callback The callback to pass each matching file to
+	 * @throws IOException If the directory could not be scanned or the callback failed
+	 */
+	public void scan(File baseDir, final Callback callback) throws IOException {
+		final Path basePath = baseDir.toPath();
+		Files.walkFileTree(basePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (dir.equals(basePath)) {
+					return FileVisitResult.CONTINUE;
+				}
+				return couldHoldMatches(basePath.relativize(dir).toString()) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (attrs.isRegularFile() && isMatch(basePath.relativize(file).toString())) {
+					callback.found(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				return skipFailed(FileScanner.this.log, file, exc);
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+				return skipFailed(FileScanner.this.log, dir, exc);
+			}
+		});
+	}
+
+	/**
+	 * This scans the given directory once for the files matching each of the given scanners, a directory is only
+	 * descended into when at least one of the scanners could find matches in it, the log of the first scanner is
+	 * warned of the directories and files that could not be read
+	 * @param baseDir The directory to scan
+	 * @param scanners The scanners of the merges sharing the directory
+	 * @return The matching files of each scanner in the order they were found, in the same order as the scanners
+	 * @throws IOException If the directory could not be scanned
+	 */
+	public static List<List<File>> scan(File baseDir, final List<FileScanner> scanners) throws IOException {
+		final Path basePath = baseDir.toPath();
+		final List<List<File>> matches = new ArrayList<List<File>>(scanners.size());
+		for (int i = 0; i < scanners.size(); i++) {
+			matches.add(new ArrayList<File>());
+		}
+		Files.walkFileTree(basePath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (dir.equals(basePath)) {
+					return FileVisitResult.CONTINUE;
+				}
+				String name = basePath.relativize(dir).toString();
+				for (FileScanner scanner : scanners) {
+					if (scanner.couldHoldMatches(name)) {
+						return FileVisitResult.CONTINUE;
+					}
+				}
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					String name = basePath.relativize(file).toString();
+					File found = null;
+					for (int i = 0; i < scanners.size(); i++) {
+						if (scanners.get(i).isMatch(name)) {
+							if (found == null) {
+								found = file.toFile();
+							}
+							matches.get(i).add(found);
+						}
+					}
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) {
+				return skipFailed(scanners.get(0).log, file, exc);
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+				return skipFailed(scanners.get(0).log, dir, exc);
+			}
+		});
+		return matches;
+	}
+
+	/**
+	 * This skips a directory or file that could not be read rather than failing the scan
+	 * @param log The log to warn
+	 * @param path The directory or file that could not be read
+	 * @param exc The failure, null if there was none
+	 * @return The result to continue the walk with
+	 */
+	private static FileVisitResult skipFailed(Log log, Path path, IOException exc) {
+		// a loop is a symbolic link back up the tree, its files are already being scanned
+		if (exc != null && !(exc instanceof FileSystemLoopException)) {
+			log.warn("Skipping: " + path + " as it could not be read: " + exc.getMessage());
+		}
+		return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * This gets whether the given relative file path matches an include and none of the excludes
+	 * @param name The path relative to the scanned directory
+	 * @return True if the file matches
+	 */
+	public boolean isMatch(String name) {
+		return matchesAny(this.includes, name) && !matchesAny(this.excludes, name);
+	}
+
+	/**
+	 * This gets whether the given relative directory could contain matching files
+	 * @param name The directory path relative to the scanned directory
+	 * @return True if the directory should be scanned
+	 */
+	public boolean couldHoldMatches(String name) {
+		for (String excludedDir : this.excludedDirs) {
+			if (SelectorUtils.matchPath(excludedDir, name, true)) {
+				return false;
+			}
+		}
+		for (String include : this.includes) {
+			if (SelectorUtils.matchPatternStart(include, name, true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matchesAny(String[] patterns, String name) {
+		for (String pattern : patterns) {
+			if (SelectorUtils.matchPath(pattern, name, true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * This splits the comma separated patterns and normalises them the same way the plexus DirectoryScanner does
+	 * @param patternsCSV The comma separated list of patterns
+	 * @return The normalised patterns
+	 */
+	private static String[] normalisePatterns(String patternsCSV) {
+		if (patternsCSV == null) {
+			return new String[0];
+		}
+		String[] patterns = StringUtils.split(patternsCSV, ",");
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i].trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+			if (pattern.endsWith(File.separator)) {
+				pattern += "**";
+			}
+			patterns[i] = pattern;
+		}
+		return patterns;
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.shared;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The ProgressReporter reports the progress of appending files to a target file. Rather than logging every file
+ * it logs a line with the number of files and bytes appended so far, the throughput and the estimated time left at
+ * most once per interval followed by a summary of each bucket of files once all of them are appended. The name of
+ * each file is only logged at debug level and the log messages are only built when they are going to be logged.
+ * The counts are kept without locking so instances can be shared between the threads appending the files.
+ * @version $Id$
+ * @author conorroche
+ */
+public class ProgressReporter {
+
+	private static final String DEFAULT_BUCKET = "other files";
+	private static final double MB = 1024 * 1024;
+
+	/**
+	 * The Bucket holds the number of files and bytes appended from a bucket
+	 */
+	private static class Bucket {
+
+		final int order;
+		final AtomicInteger numFiles = new AtomicInteger();
+		final AtomicLong numBytes = new AtomicLong();
+
+		Bucket(int order) {
+			this.order = order;
+		}
+	}
+
+	private final Log log;
+	private final String description;
+	private final int totalFiles;
+	private final long totalBytes;
+	private final long intervalNanos;
+	private final long startTime;
+	private final AtomicLong nextReport;
+	private final AtomicInteger numFiles = new AtomicInteger();
+	private final AtomicLong numBytes = new AtomicLong();
+	// the buckets are summarised in the order they were first seen
+	private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+	private final AtomicInteger numBuckets = new AtomicInteger();
+
+	/**
+	 * This creates a ProgressReporter
+	 * @param log The log to report to
+	 * @param description What the files are being appended to e.g. target file: /tmp/all.sql
+	 * @param totalFiles The number of files that will be appended
+	 * @param totalBytes The total size of the files that will be appended
+	 * @param interval The minimum number of milliseconds between progress lines
+	 */
+	public ProgressReporter(Log log, String description, int totalFiles, long totalBytes, long interval) {
+		this.log = log;
+		this.description = description;
+		this.totalFiles = totalFiles;
+		this.totalBytes = totalBytes;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(interval, 0));
+		this.startTime = System.nanoTime();
+		this.nextReport = new AtomicLong(this.startTime + this.intervalNanos);
+	}
+
+	/**
+	 * This records that a file was appended
+	 * @param bucket The bucket the file belongs to e.g. the ordering name it matched, may be null
+	 * @param file The file that was appended
+	 * @param size The number of bytes of the file that were appended
+	 */
+	public void fileAppended(String bucket, File file, long size) {
+		if (this.log.isDebugEnabled()) {
+			this.log.debug("Appended file: " + file.getAbsolutePath() + " to the " + this.description + ".");
+		}
+		int files = this.numFiles.incrementAndGet();
+		long bytes = this.numBytes.addAndGet(size);
+		Bucket counts = getBucket(bucket == null ? DEFAULT_BUCKET : bucket);
+		counts.numFiles.incrementAndGet();
+		counts.numBytes.addAndGet(size);
+
+		long now = System.nanoTime();
+		long next = this.nextReport.get();
+		// only the thread that moves the next report time on logs the line
+		if (now >= next && files < this.totalFiles && this.log.isInfoEnabled() && this.nextReport.compareAndSet(next, now + this.intervalNanos)) {
+			double seconds = (now - this.startTime) / 1e9;
+			double bytesPerSecond = bytes / seconds;
+			StringBuilder line = new StringBuilder(160);
+			line.append("Appended: ").append(files).append('/').append(this.totalFiles).append(" files (");
+			appendMegabytes(line, bytes).append(" of ");
+			appendMegabytes(line, this.totalBytes).append(") to the ").append(this.description).append(" at ");
+			line.append(Math.round(files / seconds)).append(" files/s, ");
+			appendMegabytes(line, (long) bytesPerSecond).append("/s");
+			if (bytesPerSecond > 0) {
+				line.append(", ETA: ").append(Math.round((this.totalBytes - bytes) / bytesPerSecond)).append('s');
+			}
+			this.log.info(line.append('.').toString());
+		}
+	}
+
+	private Bucket getBucket(String name) {
+		Bucket bucket = this.buckets.get(name);
+		if (bucket == null) {
+			Bucket created = new Bucket(this.numBuckets.getAndIncrement());
+			bucket = this.buckets.putIfAbsent(name, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * This logs the summary once all of the files have been appended
+	 */
+	public void finish() {
+		int files = this.numFiles.get();
+		long bytes = this.numBytes.get();
+		double seconds = Math.max((System.nanoTime() - this.startTime) / 1e9, 0.001);
+		StringBuilder line = new StringBuilder(160);
+		line.append("Finished Appending: ").append(files).append(" files (");
+		appendMegabytes(line, bytes).append(") to the ").append(this.description);
+		line.append(" in ").append(String.format("%.1f", seconds)).append("s (").append(Math.round(files / seconds)).append(" files/s, ");
+		appendMegabytes(line, (long) (bytes / seconds)).append("/s).");
+		this.log.info(line.toString());
+		if (this.buckets.size() > 1) {
+			List<String> names = new ArrayList<String>(this.buckets.keySet());
+			Collections.sort(names, new Comparator<String>() {
+
+				public int compare(String name1, String name2) {
+					return Integer.compare(ProgressReporter.this.buckets.get(name1).order, ProgressReporter.this.buckets.get(name2).order);
+				}
+			});
+			for (String name : names) {
+				Bucket bucket = this.buckets.get(name);
+				line.setLength(0);
+				line.append("  ").append(name).append(": ").append(bucket.numFiles.get()).append(" files, ");
+				this.log.info(appendMegabytes(line, bucket.numBytes.get()).toString());
+			}
+		}
+	}
+
+	private static StringBuilder appendMegabytes(StringBuilder builder, long bytes) {
+		return builder.append(String.format("%.1f", bytes / MB)).append(" MB");
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.shared;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The SeparatorTemplate is a separator parsed once into literal and variable segments so that it can be
+ * rendered for each appended file without any string replacing. Line breaks and tabs in the configured
+ * separator are removed as they come from the xml formatting, \n and \t are translated into a line break
+ * and a tab and the following variables are supported:
+ *
+ * <pre>
+ * #{file.name} - the name of the file
+ * #{parent.name} - the name of the directory containing the file
+ * #{grandparent.name} - the name of the parent directory of the directory containing the file
+ * #{file.path} - the path of the file relative to the source directory it was found in
+ * #{file.size} - the size of the file in bytes
+ * #{file.modified} - the last modified time of the file in the form yyyy-MM-dd HH:mm:ss
+ * </pre>
+ *
+ * A plugin can add its own variables when compiling a template and pass their values when rendering it, such as
+ * the ordering a file matched. Unknown variables are output as is. Templates are not thread safe.
+ * @version $Id$
+ * @author conorroche
+ */
+public class SeparatorTemplate {
+
+	private static final String MODIFIED_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	private static final int LITERAL = 0;
+	private static final int FILE_NAME = 1;
+	private static final int PARENT_NAME = 2;
+	private static final int GRANDPARENT_NAME = 3;
+	private static final int FILE_PATH = 4;
+	private static final int FILE_SIZE = 5;
+	private static final int FILE_MODIFIED = 6;
+	// the types of the variables added by the plugin start here, in the order they were given
+	private static final int EXTRA_VARIABLE = 7;
+
+	private static final String[] VARIABLES = { null, "file.name", "parent.name", "grandparent.name", "file.path", "file.size", "file.modified" };
+
+	private final int[] types;
+	private final String[] literals;
+	private SimpleDateFormat modifiedFormat;
+
+	private SeparatorTemplate(List<Integer> types, List<String> literals) {
+		this.types = new int[types.size()];
+		for (int i = 0; i < this.types.length; i++) {
+			this.types[i] = types.get(i);
+		}
+		this.literals = literals.toArray(new String[literals.size()]);
+	}
+
+	/**
+	 * This parses the given separator into a template
+	 * @param separator The configured separator
+	 * @param extraVariables The names of the variables supported besides those of the file, e.g. ordering.name
+	 * @return The template or null if the separator is null or blank
+	 */
+	public static SeparatorTemplate compile(String separator, String... extraVariables) {
+		if (separator == null || separator.trim().length() == 0) {
+			return null;
+		}
+		// remove any line breaks and tabs due to xml formatting
+		String value = separator.trim().replace("\n", "").replace("\t", "");
+
+		List<Integer> types = new ArrayList<Integer>();
+		List<String> literals = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int pos = 0;
+		while (pos < value.length()) {
+			char c = value.charAt(pos);
+			if (c == '\\' && pos + 1 < value.length() && (value.charAt(pos + 1) == 'n' || value.charAt(pos + 1) == 't')) {
+				// add in any requested line breaks and tabs
+				literal.append(value.charAt(pos + 1) == 'n' ? '\n' : '\t');
+				pos += 2;
+				continue;
+			}
+			if (c == '#' && value.startsWith("#{", pos)) {
+				int end = value.indexOf('}', pos);
+				int type = end < 0 ? LITERAL : getVariableType(value.substring(pos + 2, end), extraVariables);
+				if (type != LITERAL) {
+					if (literal.length() > 0) {
+						types.add(LITERAL);
+						literals.add(literal.toString());
+						literal.setLength(0);
+					}
+					types.add(type);
+					literals.add(null);
+					pos = end + 1;
+					continue;
+				}
+			}
+			literal.append(c);
+			pos++;
+		}
+		if (literal.length() > 0) {
+			types.add(LITERAL);
+			literals.add(literal.toString());
+		}
+		return new SeparatorTemplate(types, literals);
+	}
+
+	private static int getVariableType(String name, String[] extraVariables) {
+		for (int i = 1; i < VARIABLES.length; i++) {
+			if (VARIABLES[i].equals(name)) {
+				return i;
+			}
+		}
+		for (int i = 0; i < extraVariables.length; i++) {
+			if (extraVariables[i].equals(name)) {
+				return EXTRA_VARIABLE + i;
+			}
+		}
+		return LITERAL;
+	}
+
+	/**
+	 * This renders the separator for the given file onto the end of the given builder
+	 * @param out The builder to render into
+	 * @param file The file being appended
+	 * @param sourceDir The source directory the file was found in, may be null
+	 * @param values The values of the extra variables in the order they were compiled with, a null value is output as empty
+	 */
+	public void render(StringBuilder out, File file, File sourceDir, String... values) {
+		for (int i = 0; i < this.types.length; i++) {
+			switch (this.types[i]) {
+				case LITERAL:
+					out.append(this.literals[i]);
+					break;
+				case FILE_NAME:
+					out.append(file.getName());
+					break;
+				case PARENT_NAME:
+					File parent = file.getParentFile();
+					if (parent != null) {
+						out.append(parent.getName());
+					}
+					break;
+				case GRANDPARENT_NAME:
+					File grandparent = file.getParentFile() != null ? file.getParentFile().getParentFile() : null;
+					if (grandparent != null) {
+						out.append(grandparent.getName());
+					}
+					break;
+				case FILE_PATH:
+					appendRelativePath(out, file, sourceDir);
+					break;
+				case FILE_SIZE:
+					out.append(file.length());
+					break;
+				case FILE_MODIFIED:
+					if (this.modifiedFormat == null) {
+						this.modifiedFormat = new SimpleDateFormat(MODIFIED_FORMAT);
+					}
+					out.append(this.modifiedFormat.format(new Date(file.lastModified())));
+					break;
+				default:
+					String value = values[this.types[i] - EXTRA_VARIABLE];
+					if (value != null) {
+						out.append(value);
+					}
+					break;
+			}
+		}
+	}
+
+	private static void appendRelativePath(StringBuilder out, File file, File sourceDir) {
+		String path = file.getPath();
+		String dirPath = sourceDir != null ? sourceDir.getPath() : null;
+		if (dirPath != null && path.length() > dirPath.length() + 1 && path.startsWith(dirPath)
+				&& path.charAt(dirPath.length()) == File.separatorChar) {
+			out.append(path, dirPath.length() + 1, path.length());
+		} else {
+			out.append(file.getName());
+		}
+	}
+
+}
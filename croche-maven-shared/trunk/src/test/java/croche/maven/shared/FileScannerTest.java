@@ -0,0 +1,117 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The FileScannerTest checks that the FileScanner finds the same files as plexus FileUtils.getFiles which it replaced
+ * @version $Id$
+ * @author conorroche
+ */
+public class FileScannerTest extends TestCase {
+
+	private static final String[] FILES = { "create-schema.sql", "readme.txt", "project-1/upgrade/2012-Q1.1.0.sql", "project-1/upgrade/skip-me.sql",
+			"project-1/.svn/text-base/2012-Q1.1.0.sql", "project-2/upgrade/2012-Q1.2.0.sql", "project-2/data/seed.sql", "other/notes.txt" };
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = File.createTempFile("file-scanner-test", "");
+		if (!this.dir.delete() || !this.dir.mkdir()) {
+			throw new IOException("Failed to create the directory: " + this.dir.getAbsolutePath());
+		}
+		for (String name : FILES) {
+			File file = new File(this.dir, name);
+			file.getParentFile().mkdirs();
+			FileUtils.fileWrite(file.getPath(), name);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that the scanner matches the same files as the plexus scanner for a few sets of patterns
+	 * @throws IOException If the directory could not be scanned
+	 */
+	public void testMatchesPlexusScanner() throws IOException {
+		assertSameFiles("**/*.sql", null);
+		assertSameFiles("**/*.sql", "**/.svn/**, **/skip*.sql");
+		assertSameFiles("**/upgrade/*.sql,*.txt", "**/.svn/**");
+		assertSameFiles("project-2/", null);
+		assertSameFiles("**/*", "other/**,project-1/**");
+	}
+
+	/**
+	 * This tests that directories are only entered when they could hold matching files
+	 */
+	public void testCouldHoldMatches() {
+		FileScanner scanner = new FileScanner("project-*/upgrade/*.sql", "**/.svn/**", new SystemStreamLog());
+		assertTrue(scanner.couldHoldMatches("project-1"));
+		assertTrue(scanner.couldHoldMatches("project-1" + File.separator + "upgrade"));
+		assertFalse(scanner.couldHoldMatches("other"));
+		assertFalse(scanner.couldHoldMatches("project-1" + File.separator + "data"));
+		assertFalse(scanner.couldHoldMatches("project-1" + File.separator + ".svn"));
+	}
+
+	/**
+	 * This tests that scanning a directory once for several scanners finds the same files as a scan for each of them
+	 * @throws IOException If the directory could not be scanned
+	 */
+	public void testSharedScanMatchesSeparateScans() throws IOException {
+		List<FileScanner> scanners = new ArrayList<FileScanner>();
+		scanners.add(new FileScanner("**/*.sql", "**/.svn/**", new SystemStreamLog()));
+		scanners.add(new FileScanner("**/upgrade/**", null, new SystemStreamLog()));
+		scanners.add(new FileScanner("*.txt", null, new SystemStreamLog()));
+		List<List<File>> matches = FileScanner.scan(this.dir, scanners);
+		assertEquals(scanners.size(), matches.size());
+		for (int i = 0; i < scanners.size(); i++) {
+			assertEquals(scan(scanners.get(i)), matches.get(i));
+		}
+	}
+
+	private void assertSameFiles(String includes, String excludes) throws IOException {
+		Set<File> expected = new HashSet<File>();
+		for (Object file : FileUtils.getFiles(this.dir, includes, excludes)) {
+			expected.add(((File) file).getAbsoluteFile());
+		}
+		Set<File> found = new HashSet<File>(scan(new FileScanner(includes, excludes, new SystemStreamLog())));
+		assertEquals(includes + " excluding " + excludes, expected, found);
+	}
+
+	private List<File> scan(FileScanner scanner) throws IOException {
+		final List<File> found = new ArrayList<File>();
+		scanner.scan(this.dir, new FileScanner.Callback() {
+
+			public void found(File file) {
+				found.add(file.getAbsoluteFile());
+			}
+		});
+		return found;
+	}
+
+}
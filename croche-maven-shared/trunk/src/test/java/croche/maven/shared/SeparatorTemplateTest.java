@@ -0,0 +1,120 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.shared;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The SeparatorTemplateTest checks that separators are rendered the same way the string replacing they replaced did
+ * @version $Id$
+ * @author conorroche
+ */
+public class SeparatorTemplateTest extends TestCase {
+
+	private File dir;
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = File.createTempFile("separator-template-test", "");
+		if (!this.dir.delete() || !this.dir.mkdir()) {
+			throw new IOException("Failed to create the directory: " + this.dir.getAbsolutePath());
+		}
+		File parent = new File(new File(this.dir, "project"), "upgrade");
+		if (!parent.mkdirs()) {
+			throw new IOException("Failed to create the directory: " + parent.getAbsolutePath());
+		}
+		this.file = new File(parent, "2012-Q1.1.0.sql");
+		FileUtils.fileWrite(this.file.getPath(), "create table a;\n");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that each of the variables of the file is replaced
+	 */
+	public void testFileVariables() {
+		String separator = "#{file.name}|#{parent.name}|#{grandparent.name}|#{file.path}|#{file.size}";
+		String path = "project" + File.separator + "upgrade" + File.separator + "2012-Q1.1.0.sql";
+		assertEquals("2012-Q1.1.0.sql|upgrade|project|" + path + "|16", render(SeparatorTemplate.compile(separator), this.dir));
+		// a file outside of the source directory falls back to its name
+		assertEquals("2012-Q1.1.0.sql", render(SeparatorTemplate.compile("#{file.path}"), new File(this.dir, "other")));
+		assertEquals("2012-Q1.1.0.sql", render(SeparatorTemplate.compile("#{file.path}"), null));
+	}
+
+	/**
+	 * This tests that the modified time of the file is formatted
+	 */
+	public void testModifiedVariable() {
+		long modified = this.file.lastModified();
+		String expected = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(modified));
+		assertEquals("-- " + expected, render(SeparatorTemplate.compile("-- #{file.modified}"), this.dir));
+	}
+
+	/**
+	 * This tests that line breaks and tabs from the xml formatting are removed while \n and \t are translated
+	 */
+	public void testLineBreaksAndTabs() {
+		assertEquals("-- 2012-Q1.1.0.sql\n\t--\n", render(SeparatorTemplate.compile("\n\t\t-- #{file.name}\n\t\t\\n\\t--\\n\n\t"), this.dir));
+		assertEquals("a\\b", render(SeparatorTemplate.compile("a\\b"), this.dir));
+	}
+
+	/**
+	 * This tests that the extra variables of the plugin are replaced with the values they are rendered with
+	 */
+	public void testExtraVariables() {
+		SeparatorTemplate template = SeparatorTemplate.compile("-- #{ordering.name}/#{file.name} #{other}", "ordering.name", "other");
+		StringBuilder out = new StringBuilder();
+		template.render(out, this.file, this.dir, "data", "x");
+		assertEquals("-- data/2012-Q1.1.0.sql x", out.toString());
+		out.setLength(0);
+		template.render(out, this.file, this.dir, null, null);
+		assertEquals("-- /2012-Q1.1.0.sql ", out.toString());
+	}
+
+	/**
+	 * This tests that unknown and unterminated variables are output as they are and a blank separator has no template
+	 */
+	public void testUnknownVariables() {
+		assertEquals("#{unknown} #{ordering.name} #{file.name", render(SeparatorTemplate.compile("#{unknown} #{ordering.name} #{file.name"), this.dir));
+		assertEquals("#2012-Q1.1.0.sql#", render(SeparatorTemplate.compile("##{file.name}#"), this.dir));
+		assertNull(SeparatorTemplate.compile(null));
+		assertNull(SeparatorTemplate.compile(" \n\t "));
+	}
+
+	/**
+	 * This tests that rendering appends to what the builder already holds
+	 */
+	public void testRenderAppends() {
+		StringBuilder out = new StringBuilder("before ");
+		SeparatorTemplate.compile("#{parent.name}").render(out, this.file, this.dir);
+		assertEquals("before upgrade", out.toString());
+	}
+
+	private String render(SeparatorTemplate template, File sourceDir) {
+		StringBuilder out = new StringBuilder();
+		template.render(out, this.file, sourceDir);
+		return out.toString();
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import croche.maven.shared.ProgressReporter;
+
+/**
+ * The CreateUpgradePathMojo represents a mojo that builds the cumulative all in one, www and core upgrade scripts
+ * needed to upgrade an environment from one sprint to a later one. The sprints after the from version up to and
+ * including the to version are listed with {@link SprintVersion#getVersionsTo(SprintVersion)} and the upgrade scripts
+ * already created for each of them by the create-upgrade-scripts goal are streamed into the cumulative scripts in
+ * order. The source tree is always scanned so the fingerprint of each sprint can be checked, the created upgrade
+ * scripts of a sprint are only used when they are up to date with its source scripts and settings, otherwise its
+ * source scripts are streamed in instead. Running the create-upgrade-scripts goal first means the created upgrade
+ * scripts can be used, it only creates the sprints that changed.
+ * @goal create-upgrade-path
+ * @requiresProject
+ * @version $Id$
+ * @author conorroche
+ */
+public class CreateUpgradePathMojo extends CreateUpgradeScriptMojo {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * This is the version of the sprint the environment is currently on, its own upgrade scripts are not included
+	 * @parameter expression="${dbupgrade.fromVersion}"
+	 * @required
+	 */
+	protected String fromVersion;
+
+	/**
+	 * This is the version of the sprint to upgrade the environment to, its upgrade scripts are included
+	 * @parameter expression="${dbupgrade.toVersion}"
+	 * @required
+	 */
+	protected String toVersion;
+
+	/**
+	 * The directory the cumulative upgrade scripts are written to, they are written to a directory named after
+	 * the from and to versions e.g. 2012-Q1.1.0-to-2012-Q3.2.0 using the all in one, www and core file names
+	 * @parameter default-value="${project.build.directory}/upgrade-paths"
+	 */
+	protected File upgradePathDir;
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.apache.maven.plugin.Mojo#execute()
+	 */
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		SprintVersion from;
+		SprintVersion to;
+		List<SprintVersion> versions;
+		try {
+			from = new SprintVersion(this.fromVersion);
+			to = new SprintVersion(this.toVersion);
+			versions = from.getVersionsTo(to);
+		} catch (SprintVersionException sve) {
+			throw new MojoExecutionException("Failed to list the sprints from: " + this.fromVersion + " to: " + this.toVersion, sve);
+		}
+
+		// the created upgrade scripts of a sprint are only used when its fingerprint shows they are up to date with
+		// its source scripts, the source scripts of the other sprints are streamed in instead
+		buildSprintData();
+		String config = getFingerprintConfig();
+		List<Sprint> pathSprints = new ArrayList<Sprint>(versions.size());
+		List<File> sprintDirs = new ArrayList<File>(versions.size());
+		long totalBytes = 0;
+		int totalFiles = 0;
+		int numFromSources = 0;
+		// select the sprints with source scripts in the range that are on the upgrade path, the patch sprints of the
+		// branches before the to version are in the range but are not on the upgrade path
+		Set<Long> pathKeys = new HashSet<Long>();
+		for (SprintVersion version : versions) {
+			pathKeys.add(Long.valueOf(version.toKey()));
+		}
+		for (Map.Entry<Long, Sprint> entry : getSprints(from, to).entrySet()) {
+			Sprint sprint = entry.getValue();
+			if (!pathKeys.contains(entry.getKey())) {
+				getLog().debug("Skipping the sprint: " + sprint.version + " as it is not on the upgrade path.");
+				continue;
+			}
+			pathSprints.add(sprint);
+			String reason = getChangeReason(sprint, config);
+			if (reason == null) {
+				File sprintDir = getSprintDir(sprint);
+				sprintDirs.add(sprintDir);
+				for (String fileName : getUpgradeScriptNames()) {
+					totalFiles++;
+					totalBytes += new File(sprintDir, fileName).length();
+				}
+			} else {
+				getLog().debug("Reading the source scripts of the sprint: " + sprint.version + " as " + reason + ".");
+				sprintDirs.add(null);
+				numFromSources++;
+				totalFiles += sprint.allInOneFiles.size();
+				for (File file : sprint.allInOneFiles) {
+					totalBytes += file.length();
+				}
+			}
+		}
+
+		File pathDir = new File(this.upgradePathDir, from + "-to-" + to);
+		if (!pathDir.isDirectory() && !pathDir.mkdirs()) {
+			throw new MojoExecutionException("Failed to create the upgrade path dir: " + pathDir.getAbsolutePath());
+		}
+		getLog().info("Creating the upgrade path of: " + pathSprints.size() + " sprints from: " + from + " to: " + to + " in: "
+				+ pathDir.getAbsolutePath() + ", " + numFromSources + " sprints without up to date upgrade scripts are read from their source scripts.");
+		ProgressReporter progress = new ProgressReporter(getLog(), "upgrade path from " + from + " to " + to, totalFiles, totalBytes,
+				this.progressInterval);
+		SprintWriter writer = numFromSources > 0 ? newSprintWriter(getCharset(), progress) : null;
+
+		OutputStream allInOne = null;
+		OutputStream www = null;
+		OutputStream core = null;
+		boolean written = false;
+		try {
+			allInOne = SprintWriter.open(new File(pathDir, this.allInOneFileName));
+			www = SprintWriter.open(new File(pathDir, this.wwwFileName));
+			core = SprintWriter.open(new File(pathDir, this.coreFileName));
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int i = 0; i < pathSprints.size(); i++) {
+				File sprintDir = sprintDirs.get(i);
+				if (sprintDir != null) {
+					append(new File(sprintDir, this.allInOneFileName), allInOne, buffer, progress);
+					append(new File(sprintDir, this.wwwFileName), www, buffer, progress);
+					append(new File(sprintDir, this.coreFileName), core, buffer, progress);
+				} else {
+					writer.append(pathSprints.get(i), allInOne, www, core, null);
+				}
+			}
+			allInOne.close();
+			www.close();
+			core.close();
+			written = true;
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to create the upgrade path from: " + from + " to: " + to, ioe);
+		} finally {
+			IOUtils.closeQuietly(allInOne);
+			IOUtils.closeQuietly(www);
+			IOUtils.closeQuietly(core);
+			if (!written) {
+				// never leave a partial upgrade path behind
+				for (String fileName : getUpgradeScriptNames()) {
+					new File(pathDir, fileName).delete();
+				}
+			}
+			progress.finish();
+		}
+	}
+
+	private String[] getUpgradeScriptNames() {
+		return new String[] { this.allInOneFileName, this.wwwFileName, this.coreFileName };
+	}
+
+	private static void append(File file, OutputStream output, byte[] buffer, ProgressReporter progress) throws IOException {
+		InputStream input = null;
+		long size = 0;
+		try {
+			input = new FileInputStream(file);
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				size += read;
+				output.write(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		progress.fileAppended(file.getName(), file, size);
+	}
+
+}
@@ -9,30 +9,33 @@
  */
 package croche.maven.plugin.dbupgrade;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 
+import croche.maven.shared.FileScanner;
+import croche.maven.shared.ProgressReporter;
+
 /**
  * The CreateUpgradeScriptMojo represents a mojo that builds the merged db upgrade script
  * @goal create-upgrade-scripts
@@ -77,6 +80,9 @@ public class CreateUpgradeScriptMojo extends AbstractMojo {
 	 * 2. #{file.name} will be replaced with the name of the file that is being appended into the target file, 
 	 * 3. #{parent.name} will be replaced with the directory name containing the file that is being appended into
 	 * the target file.
+	 * The following variables are also supported: \t for a tab, #{grandparent.name} for the name of the directory
+	 * above the parent, #{file.path} for the path of the file relative to the source directory, #{file.size} for its
+	 * size in bytes and #{file.modified} for its last modified time.
 	 * </pre>
 	 * @parameter
 	 */
@@ -121,6 +127,28 @@ public class CreateUpgradeScriptMojo extends AbstractMojo {
 	 */
 	protected String coreFileName;
 
+	/**
+	 * This is the minimum number of milliseconds between the progress lines logged while the upgrade scripts are
+	 * merged, the name of each merged file is only logged at debug level
+	 * @parameter default-value="5000"
+	 */
+	protected long progressInterval;
+
+	/**
+	 * This is the maximum number of sprints whose upgrade scripts are created at the same time, each sprint is written
+	 * to its own directory. If not set then the number of available processors is used
+	 * @parameter
+	 */
+	protected int threads;
+
+	/**
+	 * This is whether the upgrade scripts of every sprint should be created again even when they are up to date, by
+	 * default the directory of a sprint is left alone when its fingerprint shows that none of its source scripts and
+	 * none of the settings it was created with changed
+	 * @parameter expression="${dbupgrade.force}" default-value="false"
+	 */
+	protected boolean force;
+
 	/**
 	 * Gets the comma separated list of effective include patterns.
 	 * @return The comma separated list of effective include patterns, never <code>null</code>.
@@ -158,10 +186,13 @@ public class CreateUpgradeScriptMojo extends AbstractMojo {
 		List<File> wwwFiles = new ArrayList<File>();
 		List<File> coreFiles = new ArrayList<File>();
 		List<File> allInOneFiles = new ArrayList<File>();
+		// the fingerprint of the source scripts and settings the sprint is created from
+		SprintFingerprint fingerprint;
 
 	}
 
-	private Map<String, Sprint> sprints = new HashMap<String, Sprint>();
+	// the sprints keyed by the key of their version so they are created and reported in version order
+	private NavigableMap<Long, Sprint> sprints = new TreeMap<Long, Sprint>();
 
 	/**
 	 * {@inheritDoc}
@@ -172,147 +203,256 @@ public class CreateUpgradeScriptMojo extends AbstractMojo {
 		// scan the directories to build the total number of sprints for which there are upgrade scripts
 		buildSprintData();
 
-		// now create the files for all in one, www and core for each sprint
+		createUpgradeScripts();
+	}
+
+	/**
+	 * This creates the all in one, www and core upgrade scripts of each sprint found by {@link #buildSprintData()}
+	 * @throws MojoExecutionException If the upgrade scripts of a sprint could not be created
+	 */
+	void createUpgradeScripts() throws MojoExecutionException {
+		Charset charset = getCharset();
+
+		// only the sprints whose source scripts or settings changed since they were last created are created again
+		String config = getFingerprintConfig();
+		List<Sprint> sprintList = new ArrayList<Sprint>(this.sprints.size());
 		for (Sprint sprint : this.sprints.values()) {
-			try {
-				createSprintFiles(sprint);
-			} catch (IOException ex) {
-				throw new MojoExecutionException("Failed to create the sprint files for the sprint: " + sprint, ex);
+			if (!isUpToDate(sprint, config)) {
+				sprintList.add(sprint);
 			}
 		}
+		getLog().info("Creating the upgrade scripts of: " + sprintList.size() + " sprints, " + (this.sprints.size() - sprintList.size())
+				+ " sprints are up to date.");
+		if (sprintList.isEmpty()) {
+			return;
+		}
+
+		// report the progress over all of the source scripts rather than logging each one, each script is read once
+		// however many upgrade scripts it is written to
+		int totalFiles = 0;
+		long totalBytes = 0;
+		for (Sprint sprint : sprintList) {
+			totalFiles += sprint.allInOneFiles.size();
+			for (File file : sprint.allInOneFiles) {
+				totalBytes += file.length();
+			}
+		}
+		ProgressReporter progress = new ProgressReporter(getLog(), "upgrade scripts of " + sprintList.size() + " sprints", totalFiles,
+				totalBytes, this.progressInterval);
+		if (!this.targetDir.isDirectory() && !this.targetDir.mkdirs()) {
+			throw new MojoExecutionException("Failed to create the target dir: " + this.targetDir.getAbsolutePath());
+		}
+
+		// now create the files for all in one, www and core for each sprint, carrying on with the other sprints
+		// when one fails so every failed sprint is reported
+		Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+		int numThreads = Math.min(this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors(), sprintList.size());
+		try {
+			if (numThreads <= 1) {
+				for (Sprint sprint : sprintList) {
+					try {
+						createSprintFiles(sprint, newSprintWriter(charset, progress));
+					} catch (IOException ex) {
+						failures.put(sprint.version, ex);
+					} catch (RuntimeException ex) {
+						failures.put(sprint.version, ex);
+					}
+				}
+			} else {
+				getLog().debug("Creating the upgrade scripts of: " + sprintList.size() + " sprints using: " + numThreads + " threads.");
+				ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+				try {
+					List<Future<Void>> futures = new ArrayList<Future<Void>>(sprintList.size());
+					for (final Sprint sprint : sprintList) {
+						// each sprint gets its own writer as the writers reuse their buffers
+						final SprintWriter writer = newSprintWriter(charset, progress);
+						futures.add(executor.submit(new Callable<Void>() {
+
+							public Void call() throws IOException {
+								createSprintFiles(sprint, writer);
+								return null;
+							}
+						}));
+					}
+					for (int i = 0; i < futures.size(); i++) {
+						try {
+							futures.get(i).get();
+						} catch (ExecutionException ee) {
+							failures.put(sprintList.get(i).version, ee.getCause());
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							throw new MojoExecutionException("Interrupted while waiting for the sprint files to be created", ie);
+						}
+					}
+				} finally {
+					executor.shutdownNow();
+				}
+			}
+		} finally {
+			// report what was written even when some of the sprints failed
+			progress.finish();
+		}
+
+		if (!failures.isEmpty()) {
+			StringBuilder message = new StringBuilder("Failed to create the sprint files of: ").append(failures.size()).append(" sprints:");
+			for (Map.Entry<String, Throwable> failure : failures.entrySet()) {
+				message.append("\n  ").append(failure.getKey()).append(": ").append(failure.getValue().getMessage());
+			}
+			throw new MojoExecutionException(message.toString(), failures.values().iterator().next());
+		}
+	}
+
+	SprintWriter newSprintWriter(Charset charset, ProgressReporter progress) {
+		return new SprintWriter(this.sourceDir, this.separator, charset, this.allInOneFileName, this.wwwFileName, this.coreFileName, progress);
+	}
+
+	/**
+	 * This gets the charset of the source and upgrade scripts
+	 * @return The charset
+	 * @throws MojoExecutionException If the encoding is not supported
+	 */
+	Charset getCharset() throws MojoExecutionException {
+		try {
+			return Charset.forName(this.encoding);
+		} catch (IllegalArgumentException iae) {
+			throw new MojoExecutionException("The encoding: " + this.encoding + " is not supported", iae);
+		}
+	}
+
+	/**
+	 * This gets the sprints found by {@link #buildSprintData()} after the from version up to and including the to version
+	 * @param from The version the sprints are after
+	 * @param to The last version of the sprints
+	 * @return The sprints in version order keyed by the key of their version
+	 */
+	NavigableMap<Long, Sprint> getSprints(SprintVersion from, SprintVersion to) {
+		return this.sprints.subMap(Long.valueOf(from.toKey()), false, Long.valueOf(to.toKey()), true);
 	}
 
-	void createSprintFiles(Sprint sprint) throws IOException, MojoExecutionException {
-		// remove existing target dir if it exists
-		File sprintDir = new File(this.targetDir + File.separator + sprint.version);
+	void createSprintFiles(Sprint sprint, SprintWriter writer) throws IOException {
+		// remove existing target dir if it exists, along with its fingerprint so a failed sprint is created again
+		File sprintDir = getSprintDir(sprint);
 		if (!sprintDir.exists()) {
 			sprintDir.mkdirs();
 		}
 		FileUtils.cleanDirectory(sprintDir);
 
-		// build the merged all in one sql file
-		mergeFiles(sprint.allInOneFiles, new File(sprintDir, this.allInOneFileName));
-
-		// then the www one
-		mergeFiles(sprint.wwwFiles, new File(sprintDir, this.wwwFileName));
-
-		// finally the core one
-		mergeFiles(sprint.coreFiles, new File(sprintDir, this.coreFileName));
+		// write the all in one, www and core files and the copy of each file reading each file once
+		writer.write(sprint, sprintDir);
+		sprint.fingerprint.write(sprintDir, this.allInOneFileName, this.wwwFileName, this.coreFileName);
+	}
 
-		// copy all the files into the sprint dir
-		for (File file : sprint.allInOneFiles) {
-			FileUtils.copyFile(file, new File(sprintDir, file.getParentFile().getParentFile().getName() + ".sql"));
+	/**
+	 * This checks whether the upgrade scripts of the given sprint are up to date with its fingerprint, logging why not
+	 * @param sprint The sprint
+	 * @param config The settings that change how the upgrade scripts are created
+	 * @return True if the upgrade scripts of the sprint are up to date and can be left alone
+	 */
+	private boolean isUpToDate(Sprint sprint, String config) {
+		String reason = getChangeReason(sprint, config);
+		if (reason != null) {
+			getLog().debug("Creating the upgrade scripts of the sprint: " + sprint.version + " as " + reason + ".");
+			return false;
 		}
+		getLog().debug("The upgrade scripts of the sprint: " + sprint.version + " are up to date.");
+		return true;
 	}
 
-	private int mergeFiles(List<File> files, File targetFile) throws MojoExecutionException {
-
-		int numMergedFiles = 0;
-		// now append the files that have been found in the order required
-		Writer ostream = null;
-		FileOutputStream fos = null;
+	/**
+	 * This builds the fingerprint of the given sprint and compares it with the one written when the upgrade scripts
+	 * of the sprint were last created
+	 * @param sprint The sprint
+	 * @param config The settings that change how the upgrade scripts are created
+	 * @return The reason the upgrade scripts of the sprint are out of date or null if they are up to date
+	 */
+	String getChangeReason(Sprint sprint, String config) {
+		sprint.fingerprint = SprintFingerprint.build(config, sprint.allInOneFiles);
+		if (this.force) {
+			return "the upgrade scripts are forced to be created";
+		}
+		File sprintDir = getSprintDir(sprint);
 		try {
-			fos = new FileOutputStream(targetFile, true);
-			ostream = new OutputStreamWriter(fos, this.encoding);
-			BufferedWriter output = new BufferedWriter(ostream);
-
-			getLog().info("Appending: " + files.size() + " files to the target file: " + targetFile.getAbsolutePath() + "...");
-			for (File file : files) {
-				String fileName = file.getName();
-				getLog().info("Appending file: " + file.getAbsolutePath() + " to the target file: " + targetFile.getAbsolutePath() + "...");
-				InputStream input = null;
-				try {
-					input = new FileInputStream(file);
-
-					// add separator if present
-					if (this.separator != null && this.separator.trim().length() > 0) {
-						String replaced = this.separator.trim();
-						// remove any line breaks and tabs due to xml formatting
-						replaced = replaced.replace("\n", "");
-						replaced = replaced.replace("\t", "");
-						// replace the file name and parent name variables
-						replaced = replaced.replace("#{file.name}", fileName);
-						replaced = replaced.replace("#{parent.name}", file.getParentFile() != null ? file.getParentFile().getName() : "");
-						replaced = replaced.replace("#{grandparent.name}",
-								(file.getParentFile() != null && file.getParentFile().getParentFile() != null) ? file.getParentFile().getParentFile().getName()
-										: "");
-						// add in any requested line breaks and tabs
-						replaced = replaced.replace("\\n", "\n");
-						replaced = replaced.replace("\\t", "\t");
-						getLog().debug("Appending separator: " + replaced);
-						IOUtils.copy(new StringReader(replaced), output);
-					}
-					// add file contents
-					IOUtils.copy(input, output, this.encoding);
-				} catch (IOException ioe) {
-					throw new MojoExecutionException("Failed to append file: " + fileName + " to output file", ioe);
-				} finally {
-					IOUtils.closeQuietly(input);
-				}
-				numMergedFiles++;
-			}
-
-			output.flush();
+			return sprint.fingerprint.getChangeReason(SprintFingerprint.read(sprintDir), sprintDir, this.allInOneFileName, this.wwwFileName,
+					this.coreFileName);
 		} catch (IOException ioe) {
-			throw new MojoExecutionException("Failed to open stream file to output file: " + targetFile.getAbsolutePath(), ioe);
-		} finally {
-			if (fos != null) {
-				IOUtils.closeQuietly(fos);
-			}
-			if (ostream != null) {
-				IOUtils.closeQuietly(ostream);
-			}
+			return "its fingerprint could not be read: " + ioe.getMessage();
 		}
-		return numMergedFiles;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * This gets the settings that change how the upgrade scripts are created, a change to any of them means every
+	 * sprint is created again
+	 * @return The settings
+	 */
+	String getFingerprintConfig() {
+		return "sourceDir=" + this.sourceDir.getAbsolutePath() + ", separator=" + this.separator + ", encoding=" + this.encoding
+				+ ", allInOneFileName=" + this.allInOneFileName + ", wwwFileName=" + this.wwwFileName + ", coreFileName=" + this.coreFileName
+				+ ", wwwDirs=" + Arrays.toString(this.wwwDirs) + ", coreDirs=" + Arrays.toString(this.coreDirs);
+	}
+
+	File getSprintDir(Sprint sprint) {
+		return new File(this.targetDir + File.separator + sprint.version);
+	}
+
 	void buildSprintData() throws MojoExecutionException {
 		getLog().info("Scanning source directory: " + this.sourceDir.getAbsolutePath() + " for db upgrade sql scripts...");
 
-		String including = getIncludesCSV();
-		String excluding = getExcludesCSV();
+		FileScanner scanner = new FileScanner(getIncludesCSV(), getExcludesCSV(), getLog());
 
-		// first find matching files
-		List<File> matchingFiles;
+		// add each matching file to its sprint as it is found
+		final int[] numFiles = new int[1];
 		try {
-			matchingFiles = FileUtils.getFiles(this.sourceDir, including, excluding);
+			scanner.scan(this.sourceDir, new FileScanner.Callback() {
+
+				public void found(File file) throws IOException {
+					numFiles[0]++;
+					try {
+						addSprintFile(file);
+					} catch (MojoExecutionException ex) {
+						throw new IOException(ex.getMessage(), ex);
+					}
+				}
+			});
 		} catch (IOException ioe) {
+			if (ioe.getCause() instanceof MojoExecutionException) {
+				throw (MojoExecutionException) ioe.getCause();
+			}
 			throw new MojoExecutionException("Failed to find matching files of the source dir: " + this.sourceDir.getAbsolutePath(), ioe);
 		}
 
-		int numFiles = matchingFiles == null ? 0 : matchingFiles.size();
-		getLog().info("Sourced directory: " + this.sourceDir.getAbsolutePath() + " contains " + numFiles + " upgrade scripts.");
-
-		if (matchingFiles != null) {
-			for (File file : matchingFiles) {
-				// see what version it is if any
-				try {
-					SprintVersion version = new SprintVersion(getFileNameNoExt(file.getName()));
-					String versionName = version.toString();
-					Sprint sprint = this.sprints.get(versionName);
-					if (sprint == null) {
-						sprint = new Sprint();
-						sprint.version = versionName;
-						this.sprints.put(versionName, sprint);
-					}
+		getLog().info("Sourced directory: " + this.sourceDir.getAbsolutePath() + " contains " + numFiles[0] + " upgrade scripts.");
+	}
 
-					// add to the all inone and core or www list
-					sprint.allInOneFiles.add(file);
-					if (isWwwFile(file)) {
-						sprint.wwwFiles.add(file);
-					} else if (isCoreFile(file)) {
-						sprint.coreFiles.add(file);
-					} else {
-						throw new MojoExecutionException("The file: " + file.getAbsolutePath() + " did not match the www or core files");
-					}
+	private void addSprintFile(File file) throws MojoExecutionException {
+		// see what version it is if any
+		try {
+			SprintVersion version = new SprintVersion(getFileNameNoExt(file.getName()));
+			// the copy of each script is named after its project, check this before any upgrade script is written
+			if (SprintWriter.getProjectName(file) == null) {
+				throw new MojoExecutionException("The file: " + file.getAbsolutePath()
+						+ " is not in a project directory of the source directory so its copy can not be named after its project");
+			}
+			Long key = Long.valueOf(version.toKey());
+			Sprint sprint = this.sprints.get(key);
+			if (sprint == null) {
+				sprint = new Sprint();
+				sprint.version = version.toString();
+				this.sprints.put(key, sprint);
+			}
 
-				} catch (SprintVersionException ex) {
-					getLog().warn("Skipping file: " + file.getAbsolutePath() + " as it does not match a sprint version.");
-				}
+			// add to the all inone and core or www list
+			sprint.allInOneFiles.add(file);
+			if (isWwwFile(file)) {
+				sprint.wwwFiles.add(file);
+			} else if (isCoreFile(file)) {
+				sprint.coreFiles.add(file);
+			} else {
+				throw new MojoExecutionException("The file: " + file.getAbsolutePath() + " did not match the www or core files");
 			}
-		}
 
+		} catch (SprintVersionException ex) {
+			getLog().warn("Skipping file: " + file.getAbsolutePath() + " as it does not match a sprint version.");
+		}
 	}
 
 	private boolean isWwwFile(File file) {
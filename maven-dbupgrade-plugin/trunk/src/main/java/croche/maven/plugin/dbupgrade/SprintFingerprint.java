@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The SprintFingerprint records the settings and the source scripts that the upgrade scripts of a sprint were
+ * created from along with the size and modified time of the created upgrade scripts, so that a later build can
+ * leave the directory of a sprint alone when nothing it was created from changed. It is stored as a properties
+ * file in the directory of the sprint.
+ * @version $Id$
+ * @author conorroche
+ */
+class SprintFingerprint {
+
+	private static final String FINGERPRINT_FILE_NAME = ".sprint-fingerprint";
+	private static final String HASH_ALGORITHM = "MD5";
+
+	private String configHash;
+	private final List<Input> inputs = new ArrayList<Input>();
+	// the size and modified time of each upgrade script when the sprint was created, keyed by file name
+	private final Properties outputs = new Properties();
+
+	/**
+	 * The Input represents a single source script of the sprint
+	 */
+	static class Input {
+
+		String path;
+		long size;
+		long modified;
+
+	}
+
+	/**
+	 * This gets the fingerprint file of the given sprint directory
+	 * @param sprintDir The directory of the sprint
+	 * @return The fingerprint file
+	 */
+	static File getFingerprintFile(File sprintDir) {
+		return new File(sprintDir, FINGERPRINT_FILE_NAME);
+	}
+
+	/**
+	 * This builds the fingerprint describing the current state of a sprint
+	 * @param config The settings that change how the upgrade scripts are created
+	 * @param files The source scripts of the sprint in the order they are appended
+	 * @return The fingerprint
+	 */
+	static SprintFingerprint build(String config, List<File> files) {
+		SprintFingerprint fingerprint = new SprintFingerprint();
+		fingerprint.configHash = hash(config);
+		for (File file : files) {
+			Input input = new Input();
+			input.path = file.getAbsolutePath();
+			input.size = file.length();
+			input.modified = file.lastModified();
+			fingerprint.inputs.add(input);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * This reads the fingerprint written when the upgrade scripts of the sprint were last created
+	 * @param sprintDir The directory of the sprint
+	 * @return The fingerprint or null if there is no fingerprint in the directory
+	 * @throws IOException If the fingerprint exists but could not be read
+	 */
+	static SprintFingerprint read(File sprintDir) throws IOException {
+		File fingerprintFile = getFingerprintFile(sprintDir);
+		if (!fingerprintFile.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(fingerprintFile);
+			props.load(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+
+		SprintFingerprint fingerprint = new SprintFingerprint();
+		try {
+			fingerprint.configHash = props.getProperty("config");
+			int numFiles = Integer.parseInt(props.getProperty("files", "0"));
+			for (int i = 0; i < numFiles; i++) {
+				Input in = new Input();
+				in.path = props.getProperty("file." + i + ".path");
+				in.size = Long.parseLong(props.getProperty("file." + i + ".size", "-1"));
+				in.modified = Long.parseLong(props.getProperty("file." + i + ".modified", "-1"));
+				fingerprint.inputs.add(in);
+			}
+			int numOutputs = Integer.parseInt(props.getProperty("outputs", "0"));
+			for (int i = 0; i < numOutputs; i++) {
+				String name = props.getProperty("output." + i + ".name");
+				String state = props.getProperty("output." + i + ".state");
+				if (name != null && state != null) {
+					fingerprint.outputs.setProperty(name, state);
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IOException("The sprint fingerprint: " + fingerprintFile.getAbsolutePath() + " is corrupt", nfe);
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * This writes this fingerprint into the given sprint directory, it should be called after the upgrade scripts
+	 * have been created so their size and modified time can be recorded
+	 * @param sprintDir The directory of the sprint
+	 * @param outputNames The file names of the upgrade scripts of the sprint
+	 * @throws IOException If the fingerprint could not be written
+	 */
+	void write(File sprintDir, String... outputNames) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("config", this.configHash);
+		props.setProperty("files", String.valueOf(this.inputs.size()));
+		for (int i = 0; i < this.inputs.size(); i++) {
+			Input in = this.inputs.get(i);
+			props.setProperty("file." + i + ".path", in.path);
+			props.setProperty("file." + i + ".size", String.valueOf(in.size));
+			props.setProperty("file." + i + ".modified", String.valueOf(in.modified));
+		}
+		props.setProperty("outputs", String.valueOf(outputNames.length));
+		for (int i = 0; i < outputNames.length; i++) {
+			props.setProperty("output." + i + ".name", outputNames[i]);
+			props.setProperty("output." + i + ".state", getState(new File(sprintDir, outputNames[i])));
+		}
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(getFingerprintFile(sprintDir));
+			props.store(output, "Generated by the maven-dbupgrade-plugin, do not edit");
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * This compares this fingerprint with the one written when the upgrade scripts of the sprint were last created
+	 * @param previous The previous fingerprint, may be null
+	 * @param sprintDir The directory of the sprint
+	 * @param outputNames The file names of the upgrade scripts of the sprint
+	 * @return The reason the upgrade scripts of the sprint need to be created again or null if they are up to date
+	 */
+	String getChangeReason(SprintFingerprint previous, File sprintDir, String... outputNames) {
+		if (previous == null) {
+			return "there is no fingerprint for it";
+		}
+		if (!this.configHash.equals(previous.configHash)) {
+			return "the upgrade script settings changed";
+		}
+		for (String outputName : outputNames) {
+			File outputFile = new File(sprintDir, outputName);
+			if (!outputFile.isFile()) {
+				return "the upgrade script: " + outputName + " does not exist";
+			}
+			if (!getState(outputFile).equals(previous.outputs.getProperty(outputName))) {
+				return "the upgrade script: " + outputName + " was modified since it was created";
+			}
+		}
+		if (this.inputs.size() != previous.inputs.size()) {
+			return "the number of source scripts changed from: " + previous.inputs.size() + " to: " + this.inputs.size();
+		}
+		for (int i = 0; i < this.inputs.size(); i++) {
+			Input current = this.inputs.get(i);
+			Input old = previous.inputs.get(i);
+			if (!current.path.equals(old.path)) {
+				return "the source scripts or their order changed at: " + current.path;
+			}
+			if (current.size != old.size || current.modified != old.modified) {
+				return "the source script: " + current.path + " was modified";
+			}
+		}
+		return null;
+	}
+
+	private static String getState(File file) {
+		return file.length() + "@" + file.lastModified();
+	}
+
+	private static String hash(String value) {
+		try {
+			return toHex(MessageDigest.getInstance(HASH_ALGORITHM).digest(value.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException nsae) {
+			// every jvm is required to support MD5
+			throw new IllegalStateException(nsae);
+		} catch (UnsupportedEncodingException uee) {
+			// every jvm is required to support UTF-8
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+}
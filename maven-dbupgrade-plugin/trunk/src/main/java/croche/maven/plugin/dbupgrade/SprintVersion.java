@@ -18,7 +18,7 @@ import java.util.List;
  * @version $Id$
  * @author conorroche
  */
-public class SprintVersion {
+public class SprintVersion implements Comparable<SprintVersion> {
 
 	private int patch = 0;
 	private int quarter;
@@ -198,6 +198,23 @@ public class SprintVersion {
 		return next;
 	}
 
+	/**
+	 * This gets the key of this version, the year, quarter, section and patch packed into a long so that keys
+	 * sort in the same order as the versions and can be used to index sprints without building their strings
+	 * @return The key
+	 */
+	public long toKey() {
+		return ((long) this.year << 48) | ((long) this.quarter << 40) | ((long) this.section << 32) | (this.patch & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	public int compareTo(SprintVersion other) {
+		return Long.compare(toKey(), other.toKey());
+	}
+
 	/**
 	 * This gets whether the given version is the same branch as this one, this
 	 * means that its the same apart from the patch version
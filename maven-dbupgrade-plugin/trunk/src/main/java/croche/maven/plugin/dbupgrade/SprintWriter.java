@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+import croche.maven.plugin.dbupgrade.CreateUpgradeScriptMojo.Sprint;
+import croche.maven.shared.ProgressReporter;
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The SprintWriter writes the upgrade scripts of a sprint in a single pass over its source scripts. Each source
+ * script is opened once and its bytes are streamed at the same time to the all in one script, to the www or core
+ * script it belongs to and to its copy named after its project. As the source scripts and the upgrade scripts share
+ * the same encoding the content is copied as raw bytes, only the separators are encoded. A writer keeps its own
+ * buffers and separator template so it must only be used by one thread at a time.
+ * @version $Id$
+ * @author conorroche
+ */
+class SprintWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File sourceDir;
+	private final String allInOneFileName;
+	private final String wwwFileName;
+	private final String coreFileName;
+	private final SeparatorTemplate separator;
+	private final StringBuilder separatorBuilder = new StringBuilder();
+	private final CharsetEncoder separatorEncoder;
+	private ByteBuffer separatorBytes = ByteBuffer.allocate(256);
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private final ProgressReporter progress;
+
+	/**
+	 * This creates a SprintWriter
+	 * @param sourceDir The source directory the scripts were found in
+	 * @param separator The separator to write above each script, may be null
+	 * @param charset The charset of the source and upgrade scripts
+	 * @param allInOneFileName The file name of the all in one script
+	 * @param wwwFileName The file name of the www script
+	 * @param coreFileName The file name of the core script
+	 * @param progress The reporter to record each script in
+	 */
+	SprintWriter(File sourceDir, String separator, Charset charset, String allInOneFileName, String wwwFileName, String coreFileName,
+			ProgressReporter progress) {
+		this.sourceDir = sourceDir;
+		// the template keeps a date format so each writer compiles its own
+		this.separator = SeparatorTemplate.compile(separator);
+		this.separatorEncoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.allInOneFileName = allInOneFileName;
+		this.wwwFileName = wwwFileName;
+		this.coreFileName = coreFileName;
+		this.progress = progress;
+	}
+
+	/**
+	 * This writes the upgrade scripts of the given sprint into its directory replacing any existing ones
+	 * @param sprint The sprint
+	 * @param sprintDir The directory of the sprint, it must exist
+	 * @throws IOException If a script could not be read or written
+	 */
+	void write(Sprint sprint, File sprintDir) throws IOException {
+		OutputStream allInOne = null;
+		OutputStream www = null;
+		OutputStream core = null;
+		try {
+			allInOne = open(new File(sprintDir, this.allInOneFileName));
+			www = open(new File(sprintDir, this.wwwFileName));
+			core = open(new File(sprintDir, this.coreFileName));
+			append(sprint, allInOne, www, core, sprintDir);
+			allInOne.close();
+			www.close();
+			core.close();
+		} finally {
+			IOUtils.closeQuietly(allInOne);
+			IOUtils.closeQuietly(www);
+			IOUtils.closeQuietly(core);
+		}
+	}
+
+	/**
+	 * This appends the source scripts of the given sprint to the given all in one, www and core scripts
+	 * @param sprint The sprint
+	 * @param allInOne The all in one script
+	 * @param www The www script
+	 * @param core The core script
+	 * @param copyDir The directory to copy each script to named after its project, null if the scripts are not copied
+	 * @throws IOException If a script could not be read or written
+	 */
+	void append(Sprint sprint, OutputStream allInOne, OutputStream www, OutputStream core, File copyDir) throws IOException {
+		Set<File> wwwFiles = new HashSet<File>(sprint.wwwFiles);
+		// every www and core script is in the all in one list in the same order as its own list
+		for (File file : sprint.allInOneFiles) {
+			boolean isWww = wwwFiles.contains(file);
+			File copyFile = copyDir == null ? null : new File(copyDir, getProjectName(file) + ".sql");
+			long size = appendFile(file, allInOne, isWww ? www : core, copyFile);
+			this.progress.fileAppended(isWww ? this.wwwFileName : this.coreFileName, file, size);
+		}
+	}
+
+	/**
+	 * This gets the name of the project of the given script which names its copy, the directory above its parent
+	 * @param file The script
+	 * @return The project name or null if the script is not nested two directories deep
+	 */
+	static String getProjectName(File file) {
+		File parent = file.getParentFile();
+		return parent == null || parent.getParentFile() == null ? null : parent.getParentFile().getName();
+	}
+
+	/**
+	 * This appends the given script to the all in one and www or core scripts and copies it to its project copy
+	 * reading it once
+	 * @param file The script
+	 * @param allInOne The all in one script
+	 * @param group The www or core script the file belongs to
+	 * @param copyFile The project copy of the script, may be null
+	 * @return The number of bytes of the script that were appended
+	 * @throws IOException If the script could not be read or written
+	 */
+	private long appendFile(File file, OutputStream allInOne, OutputStream group, File copyFile) throws IOException {
+		if (this.separator != null) {
+			this.separatorBuilder.setLength(0);
+			this.separator.render(this.separatorBuilder, file, this.sourceDir);
+			ByteBuffer bytes = encodeSeparator();
+			allInOne.write(bytes.array(), bytes.arrayOffset(), bytes.limit());
+			group.write(bytes.array(), bytes.arrayOffset(), bytes.limit());
+		}
+		InputStream input = null;
+		OutputStream copy = null;
+		try {
+			input = new FileInputStream(file);
+			copy = copyFile == null ? null : new FileOutputStream(copyFile);
+			long size = 0;
+			int read;
+			while ((read = input.read(this.buffer)) != -1) {
+				size += read;
+				allInOne.write(this.buffer, 0, read);
+				group.write(this.buffer, 0, read);
+				if (copy != null) {
+					copy.write(this.buffer, 0, read);
+				}
+			}
+			if (copy != null) {
+				copy.close();
+			}
+			return size;
+		} finally {
+			IOUtils.closeQuietly(input);
+			IOUtils.closeQuietly(copy);
+		}
+	}
+
+	/**
+	 * This encodes the rendered separator into the reused separator buffer
+	 * @return The buffer holding the encoded separator from its start to its limit
+	 * @throws CharacterCodingException If the separator could not be encoded
+	 */
+	private ByteBuffer encodeSeparator() throws CharacterCodingException {
+		int required = (int) Math.ceil(this.separatorBuilder.length() * (double) this.separatorEncoder.maxBytesPerChar());
+		if (this.separatorBytes.capacity() < required) {
+			this.separatorBytes = ByteBuffer.allocate(required);
+		}
+		this.separatorBytes.clear();
+		this.separatorEncoder.reset();
+		CoderResult result = this.separatorEncoder.encode(CharBuffer.wrap(this.separatorBuilder), this.separatorBytes, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = this.separatorEncoder.flush(this.separatorBytes);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		this.separatorBytes.flip();
+		return this.separatorBytes;
+	}
+
+	/**
+	 * This opens the given upgrade script for writing replacing any existing one
+	 * @param file The upgrade script
+	 * @return The buffered stream of the upgrade script
+	 * @throws IOException If the file could not be opened
+	 */
+	static OutputStream open(File file) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The CreateUpgradeScriptMojoTest checks that scripts whose project copy can not be named are reported before any
+ * upgrade script is written
+ * @version $Id$
+ * @author conorroche
+ */
+public class CreateUpgradeScriptMojoTest extends TestCase {
+
+	// a relative source dir so the scripts directly in it have no grandparent directory
+	private static final File SOURCE_DIR = new File("dbupgrade-test-src");
+
+	@Override
+	protected void setUp() throws Exception {
+		FileUtils.deleteDirectory(SOURCE_DIR);
+		SOURCE_DIR.mkdirs();
+		FileUtils.fileWrite(new File(SOURCE_DIR, "2012-Q1.1.0.sql").getPath(), "create table a;\n");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(SOURCE_DIR);
+	}
+
+	/**
+	 * This tests that a script which is not in a project directory is reported with its path
+	 */
+	public void testScriptOutsideProjectDirReported() {
+		CreateUpgradeScriptMojo mojo = new CreateUpgradeScriptMojo();
+		set(mojo, "sourceDir", SOURCE_DIR);
+		set(mojo, "coreDirs", new String[] { SOURCE_DIR.getName() });
+		set(mojo, "allInOneFileName", "upgrade-all.sql");
+		set(mojo, "wwwFileName", "upgrade-www.sql");
+		set(mojo, "coreFileName", "upgrade-core.sql");
+		try {
+			mojo.buildSprintData();
+			fail("The script outside a project directory should have been reported");
+		} catch (MojoExecutionException ex) {
+			assertTrue(ex.getMessage(), ex.getMessage().contains(new File(SOURCE_DIR, "2012-Q1.1.0.sql").getAbsolutePath()));
+		}
+	}
+
+	/**
+	 * This tests that the project of a script is the directory above the one it is in
+	 */
+	public void testProjectName() {
+		assertEquals("project-1", SprintWriter.getProjectName(new File("src/project-1/upgrade/2012-Q1.1.0.sql")));
+		assertEquals("src", SprintWriter.getProjectName(new File("src/upgrade/2012-Q1.1.0.sql")));
+		assertNull(SprintWriter.getProjectName(new File("upgrade/2012-Q1.1.0.sql")));
+		assertNull(SprintWriter.getProjectName(new File("2012-Q1.1.0.sql")));
+	}
+
+	private static void set(Object target, String name, Object value) {
+		try {
+			Field field = CreateUpgradeScriptMojo.class.getDeclaredField(name);
+			field.setAccessible(true);
+			field.set(target, value);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to set the field: " + name, e);
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2012 Avego Ltd., All Rights Reserved.
+ * For licensing terms please contact Avego LTD.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.dbupgrade;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The SprintVersionTest checks that the keys of sprint versions sort in the same order as the versions
+ * @version $Id$
+ * @author conorroche
+ */
+public class SprintVersionTest extends TestCase {
+
+	/**
+	 * This tests that the keys of versions given oldest first increase
+	 * @throws SprintVersionException If a version could not be parsed
+	 */
+	public void testKeysSortLikeVersions() throws SprintVersionException {
+		List<SprintVersion> versions = new ArrayList<SprintVersion>();
+		versions.add(new SprintVersion("2011-Q1.1.0"));
+		versions.add(new SprintVersion("2011-Q1.1.1"));
+		versions.add(new SprintVersion("2011-Q1.1.9"));
+		versions.add(new SprintVersion(2011, 1, 1, 10));
+		versions.add(new SprintVersion(2011, 1, 1, Integer.MAX_VALUE));
+		versions.add(new SprintVersion("2011-Q1.2.0"));
+		versions.add(new SprintVersion("2011-Q1.4.2"));
+		versions.add(new SprintVersion("2011-Q2.1.0"));
+		versions.add(new SprintVersion("2011-Q4.4.3"));
+		versions.add(new SprintVersion("2012-Q1.1.0"));
+		for (int i = 1; i < versions.size(); i++) {
+			SprintVersion previous = versions.get(i - 1);
+			SprintVersion version = versions.get(i);
+			assertTrue(previous + " should be before " + version, previous.toKey() < version.toKey());
+			assertTrue(previous.compareTo(version) < 0);
+			assertTrue(version.compareTo(previous) > 0);
+		}
+
+		List<SprintVersion> shuffled = new ArrayList<SprintVersion>(versions);
+		Collections.reverse(shuffled);
+		Collections.sort(shuffled);
+		assertEquals(versions, shuffled);
+	}
+
+	/**
+	 * This tests that a version without a patch has the same key as the same version with patch 0
+	 * @throws SprintVersionException If a version could not be parsed
+	 */
+	public void testVersionWithoutPatch() throws SprintVersionException {
+		SprintVersion version = new SprintVersion("2011-Q3.1");
+		assertEquals(new SprintVersion("2011-Q3.1.0").toKey(), version.toKey());
+		assertEquals(0, version.compareTo(new SprintVersion(2011, 3, 1, 0)));
+	}
+
+	/**
+	 * This tests that each version of a path between two versions has a bigger key than the one before
+	 * @throws SprintVersionException If a version could not be parsed
+	 */
+	public void testVersionsToIncrease() throws SprintVersionException {
+		SprintVersion from = new SprintVersion("2011-Q4.1.0");
+		SprintVersion to = new SprintVersion("2013-Q2.1.1");
+		long key = from.toKey();
+		for (SprintVersion version : from.getVersionsTo(to)) {
+			assertTrue(version + " should be after the version before it", version.toKey() > key);
+			key = version.toKey();
+		}
+		assertEquals(to.toKey(), key);
+	}
+
+}
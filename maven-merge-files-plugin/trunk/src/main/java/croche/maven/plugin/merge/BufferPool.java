@@ -0,0 +1,80 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The BufferPool holds the byte and char buffers used to transcode files so the writers of each target file
+ * reuse the buffers of the target files written before them rather than allocating their own. The buffers are
+ * heap buffers as the charset coders have fast paths for buffers backed by arrays. It is safe to use from any thread.
+ * @version $Id$
+ * @author conorroche
+ */
+final class BufferPool {
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	// the most buffers of each kind kept for reuse
+	private static final int MAX_POOLED = 32;
+
+	private static final Queue<ByteBuffer> BYTE_BUFFERS = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final Queue<CharBuffer> CHAR_BUFFERS = new ConcurrentLinkedQueue<CharBuffer>();
+
+	private BufferPool() {
+		super();
+	}
+
+	/**
+	 * This gets a cleared byte buffer of {@link #BUFFER_SIZE} bytes
+	 * @return The buffer which should be released when it is no longer used
+	 */
+	static ByteBuffer acquireBytes() {
+		ByteBuffer buffer = BYTE_BUFFERS.poll();
+		return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * This gets a cleared char buffer of {@link #BUFFER_SIZE} / 2 chars
+	 * @return The buffer which should be released when it is no longer used
+	 */
+	static CharBuffer acquireChars() {
+		CharBuffer buffer = CHAR_BUFFERS.poll();
+		return buffer != null ? buffer : CharBuffer.allocate(BUFFER_SIZE / 2);
+	}
+
+	/**
+	 * This returns the given buffer to the pool
+	 * @param buffer The buffer, may be null
+	 */
+	static void release(ByteBuffer buffer) {
+		if (buffer != null && BYTE_BUFFERS.size() < MAX_POOLED) {
+			buffer.clear();
+			BYTE_BUFFERS.offer(buffer);
+		}
+	}
+
+	/**
+	 * This returns the given buffer to the pool
+	 * @param buffer The buffer, may be null
+	 */
+	static void release(CharBuffer buffer) {
+		if (buffer != null && CHAR_BUFFERS.size() < MAX_POOLED) {
+			buffer.clear();
+			CHAR_BUFFERS.offer(buffer);
+		}
+	}
+
+}
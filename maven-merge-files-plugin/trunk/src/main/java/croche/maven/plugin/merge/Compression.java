@@ -0,0 +1,127 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The Compression represents the codecs a merged target file can be compressed with while it is written.
+ * Gzip is always available, zstd and lz4 are only available when a library providing them is added to
+ * the dependencies of the plugin (io.airlift:aircompressor for zstd and org.lz4:lz4-java for lz4).
+ * @version $Id$
+ * @author conorroche
+ */
+enum Compression {
+
+	/**
+	 * The target file is not compressed
+	 */
+	NONE(null, null),
+
+	/**
+	 * The target file is gzip compressed
+	 */
+	GZIP(null, null),
+
+	/**
+	 * The target file is zstd compressed using the pure java aircompressor library
+	 */
+	ZSTD("io.airlift.compress.zstd.ZstdOutputStream", "io.airlift:aircompressor"),
+
+	/**
+	 * The target file is compressed in the lz4 frame format using the lz4-java library
+	 */
+	LZ4("net.jpountz.lz4.LZ4FrameOutputStream", "org.lz4:lz4-java");
+
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+	private final String streamClassName;
+	private final String artifact;
+
+	private Compression(String streamClassName, String artifact) {
+		this.streamClassName = streamClassName;
+		this.artifact = artifact;
+	}
+
+	/**
+	 * This checks that the library providing this codec is on the classpath
+	 * @throws IllegalStateException If the library is not available
+	 */
+	void checkAvailable() {
+		if (this.streamClassName != null) {
+			getStreamConstructor();
+		}
+	}
+
+	/**
+	 * This wraps the given output stream so that everything written to it is compressed
+	 * @param output The stream to wrap
+	 * @return The compressing stream, closing it finishes the compressed data and closes the given stream
+	 * @throws IOException If the compressing stream could not be created
+	 */
+	OutputStream wrap(OutputStream output) throws IOException {
+		switch (this) {
+			case NONE:
+				return output;
+			case GZIP:
+				return new GZIPOutputStream(output, GZIP_BUFFER_SIZE);
+			default:
+				try {
+					return getStreamConstructor().newInstance(output);
+				} catch (InvocationTargetException ite) {
+					if (ite.getCause() instanceof IOException) {
+						throw (IOException) ite.getCause();
+					}
+					throw new IOException("Failed to create the " + name().toLowerCase() + " output stream", ite.getCause());
+				} catch (ReflectiveOperationException roe) {
+					throw new IOException("Failed to create the " + name().toLowerCase() + " output stream", roe);
+				}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Constructor<? extends OutputStream> getStreamConstructor() {
+		try {
+			Class<?> streamClass = Class.forName(this.streamClassName, true, Compression.class.getClassLoader());
+			return ((Class<? extends OutputStream>) streamClass).getConstructor(OutputStream.class);
+		} catch (ClassNotFoundException cnfe) {
+			throw new IllegalStateException("The " + name().toLowerCase() + " compression requires " + this.artifact
+					+ " to be added to the dependencies of the plugin", cnfe);
+		} catch (NoSuchMethodException nsme) {
+			throw new IllegalStateException("The version of " + this.artifact + " on the plugin classpath is not supported", nsme);
+		}
+	}
+
+	/**
+	 * This gets the compression with the given name
+	 * @param name The name, one of none, gzip, zstd or lz4 (case insensitive), null means none
+	 * @return The compression
+	 * @throws IllegalArgumentException If the name is not a known compression
+	 */
+	static Compression forName(String name) {
+		if (name == null || name.trim().length() == 0) {
+			return NONE;
+		}
+		for (Compression compression : values()) {
+			if (compression.name().equalsIgnoreCase(name.trim())) {
+				return compression;
+			}
+		}
+		throw new IllegalArgumentException("The compression: " + name + " is not one of none, gzip, zstd or lz4");
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The ContentDeduplicator tracks the content of the files appended to a target file so that files whose
+ * content was already appended can be skipped. Files are first compared by size, only files with the same
+ * size as an already appended file are hashed and a hash match is confirmed by comparing the bytes so
+ * different files are never skipped.
+ * @version $Id$
+ * @author conorroche
+ */
+class ContentDeduplicator {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * An appended file, its hash is only calculated once another file of the same size is seen
+	 */
+	private static final class Entry {
+
+		final File file;
+		long hash = -1;
+
+		Entry(File file) {
+			this.file = file;
+		}
+
+		long getHash() throws IOException {
+			if (this.hash == -1) {
+				this.hash = hash(this.file);
+			}
+			return this.hash;
+		}
+	}
+
+	private final Map<Long, List<Entry>> entriesBySize = new HashMap<Long, List<Entry>>();
+	private int numDuplicates;
+	private long bytesSaved;
+
+	/**
+	 * This checks whether the content of the given file was already appended and if not records it as appended
+	 * @param file The file about to be appended
+	 * @return The already appended file with the same content or null if the content has not been appended yet
+	 * @throws IOException If the file could not be read
+	 */
+	File addIfNew(File file) throws IOException {
+		long size = file.length();
+		Entry candidate = new Entry(file);
+		List<Entry> sameSize = this.entriesBySize.get(size);
+		if (sameSize == null) {
+			// no other file has this size so there is no need to hash it yet
+			sameSize = new ArrayList<Entry>(1);
+			this.entriesBySize.put(size, sameSize);
+		} else {
+			for (Entry entry : sameSize) {
+				if (entry.getHash() == candidate.getHash() && contentEquals(entry.file, file)) {
+					this.numDuplicates++;
+					this.bytesSaved += size;
+					return entry.file;
+				}
+			}
+		}
+		sameSize.add(candidate);
+		return null;
+	}
+
+	/**
+	 * This gets the number of files skipped as their content was already appended
+	 * @return the number of duplicates
+	 */
+	int getNumDuplicates() {
+		return this.numDuplicates;
+	}
+
+	/**
+	 * This gets the total size of the files skipped as their content was already appended
+	 * @return the number of bytes saved
+	 */
+	long getBytesSaved() {
+		return this.bytesSaved;
+	}
+
+	private static long hash(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		return crc.getValue();
+	}
+
+	private static boolean contentEquals(File file1, File file2) throws IOException {
+		InputStream input1 = null;
+		InputStream input2 = null;
+		try {
+			input1 = new FileInputStream(file1);
+			input2 = new FileInputStream(file2);
+			return IOUtils.contentEquals(input1, input2);
+		} finally {
+			IOUtils.closeQuietly(input1);
+			IOUtils.closeQuietly(input2);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The ContentTransform represents a streaming transform applied to the content of each file as it is appended to
+ * a target file. The content of a file is passed to the transform in chunks of a reused char buffer which must not be
+ * kept between calls, the transformed content is written to the given writer which is either the next transform in
+ * the chain or the target file. A transform is used for one target file at a time and may keep state between chunks
+ * of the same file. Custom transforms are configured by their class name and need a public no argument constructor.
+ * @version $Id$
+ * @author conorroche
+ */
+public interface ContentTransform {
+
+	/**
+	 * This transforms the next chunk of the content of the current file
+	 * @param chars The buffer holding the chunk
+	 * @param offset The offset of the chunk in the buffer
+	 * @param length The length of the chunk
+	 * @param out The writer to write the transformed content to
+	 * @throws IOException If the transformed content could not be written
+	 */
+	void transform(char[] chars, int offset, int length, Writer out) throws IOException;
+
+	/**
+	 * This is called at the end of the content of each file, any held back content should be written and
+	 * the state of the transform reset ready for the next file
+	 * @param out The writer to write any remaining transformed content to
+	 * @throws IOException If the remaining content could not be written
+	 */
+	void finish(Writer out) throws IOException;
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ContentTransforms creates the transforms configured for a merge and holds the built in transforms:
+ *
+ * <pre>
+ * stripBom - removes a byte order mark from the start of each file
+ * lf - converts CRLF and CR line endings to LF
+ * crlf - converts LF and CR line endings to CRLF
+ * trimTrailingWhitespace - removes spaces and tabs from the end of each line
+ * stripSqlComments - removes -- line comments and block comments outside of quoted strings and identifiers,
+ * optimizer hints (block comments starting with + or !) are kept
+ * </pre>
+ *
+ * Any other name is treated as the class name of a custom {@link ContentTransform}.
+ * @version $Id$
+ * @author conorroche
+ */
+final class ContentTransforms {
+
+	private ContentTransforms() {
+		super();
+	}
+
+	/**
+	 * This creates new instances of the given transforms
+	 * @param names The names of the built in transforms or the class names of custom transforms in the order they are applied, may be null
+	 * @return The transforms, empty if none are configured
+	 * @throws IllegalArgumentException If a transform could not be created
+	 */
+	static List<ContentTransform> create(String[] names) {
+		List<ContentTransform> transforms = new ArrayList<ContentTransform>();
+		if (names == null) {
+			return transforms;
+		}
+		for (String name : names) {
+			if (name == null || name.trim().length() == 0) {
+				continue;
+			}
+			String trimmed = name.trim();
+			if ("stripBom".equalsIgnoreCase(trimmed)) {
+				transforms.add(new StripBom());
+			} else if ("lf".equalsIgnoreCase(trimmed)) {
+				transforms.add(new LineEndings(false));
+			} else if ("crlf".equalsIgnoreCase(trimmed)) {
+				transforms.add(new LineEndings(true));
+			} else if ("trimTrailingWhitespace".equalsIgnoreCase(trimmed)) {
+				transforms.add(new TrimTrailingWhitespace());
+			} else if ("stripSqlComments".equalsIgnoreCase(trimmed)) {
+				transforms.add(new StripSqlComments());
+			} else {
+				transforms.add(createCustom(trimmed));
+			}
+		}
+		return transforms;
+	}
+
+	private static ContentTransform createCustom(String className) {
+		try {
+			Class<?> transformClass = Class.forName(className, true, ContentTransforms.class.getClassLoader());
+			if (!ContentTransform.class.isAssignableFrom(transformClass)) {
+				throw new IllegalArgumentException("The transform: " + className + " does not implement " + ContentTransform.class.getName());
+			}
+			return (ContentTransform) transformClass.newInstance();
+		} catch (ClassNotFoundException cnfe) {
+			throw new IllegalArgumentException("The transform: " + className
+					+ " is not one of stripBom, lf, crlf, trimTrailingWhitespace or stripSqlComments or a class on the plugin classpath", cnfe);
+		} catch (ReflectiveOperationException roe) {
+			throw new IllegalArgumentException("Failed to create the transform: " + className, roe);
+		}
+	}
+
+	/**
+	 * The BufferedTransform collects the transformed chars of a chunk in a reused buffer so they can be
+	 * written to the next stage in as few writes as possible
+	 */
+	abstract static class BufferedTransform implements ContentTransform {
+
+		private final char[] buffer = new char[8 * 1024];
+		private int size;
+		private Writer out;
+
+		/**
+		 * This sets the writer the transformed chars are written to
+		 * @param out The writer of the next stage
+		 */
+		final void begin(Writer out) {
+			this.out = out;
+		}
+
+		/**
+		 * This adds a transformed char to the buffer writing it out when it is full
+		 * @param c The char
+		 * @throws IOException If the buffer could not be written
+		 */
+		final void emit(char c) throws IOException {
+			if (this.size == this.buffer.length) {
+				flush();
+			}
+			this.buffer[this.size++] = c;
+		}
+
+		/**
+		 * This writes the buffered chars to the next stage
+		 * @throws IOException If the chars could not be written
+		 */
+		final void flush() throws IOException {
+			if (this.size > 0) {
+				this.out.write(this.buffer, 0, this.size);
+				this.size = 0;
+			}
+		}
+
+		public void transform(char[] chars, int offset, int length, Writer out) throws IOException {
+			begin(out);
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				process(chars[i]);
+			}
+			flush();
+		}
+
+		public void finish(Writer out) throws IOException {
+			begin(out);
+			end();
+			flush();
+		}
+
+		/**
+		 * This processes a single char of the content
+		 * @param c The char
+		 * @throws IOException If the transformed content could not be written
+		 */
+		abstract void process(char c) throws IOException;
+
+		/**
+		 * This is called at the end of each file to emit any held back chars and reset the state
+		 * @throws IOException If the transformed content could not be written
+		 */
+		abstract void end() throws IOException;
+	}
+
+	/**
+	 * The StripBom removes a byte order mark from the start of each file
+	 */
+	static class StripBom implements ContentTransform {
+
+		private static final char BOM = '\uFEFF';
+		private boolean started;
+
+		public void transform(char[] chars, int offset, int length, Writer out) throws IOException {
+			if (!this.started && length > 0) {
+				this.started = true;
+				if (chars[offset] == BOM) {
+					offset++;
+					length--;
+				}
+			}
+			if (length > 0) {
+				out.write(chars, offset, length);
+			}
+		}
+
+		public void finish(Writer out) {
+			this.started = false;
+		}
+	}
+
+	/**
+	 * The LineEndings converts all line endings to either LF or CRLF
+	 */
+	static class LineEndings extends BufferedTransform {
+
+		private final boolean crlf;
+		private boolean afterCr;
+
+		LineEndings(boolean crlf) {
+			this.crlf = crlf;
+		}
+
+		@Override
+		void process(char c) throws IOException {
+			if (c == '\n' && this.afterCr) {
+				// the second half of a CRLF which has already been written
+				this.afterCr = false;
+				return;
+			}
+			this.afterCr = c == '\r';
+			if (c == '\r' || c == '\n') {
+				if (this.crlf) {
+					emit('\r');
+				}
+				emit('\n');
+			} else {
+				emit(c);
+			}
+		}
+
+		@Override
+		void end() {
+			this.afterCr = false;
+		}
+	}
+
+	/**
+	 * The TrimTrailingWhitespace removes spaces and tabs from the end of each line, runs of whitespace
+	 * are held back until it is known whether they are followed by more content on the same line
+	 */
+	static class TrimTrailingWhitespace extends BufferedTransform {
+
+		private char[] pending = new char[64];
+		private int numPending;
+
+		@Override
+		void process(char c) throws IOException {
+			if (c == ' ' || c == '\t') {
+				if (this.numPending == this.pending.length) {
+					char[] pending = new char[this.pending.length * 2];
+					System.arraycopy(this.pending, 0, pending, 0, this.numPending);
+					this.pending = pending;
+				}
+				this.pending[this.numPending++] = c;
+				return;
+			}
+			if (c != '\n' && c != '\r') {
+				for (int i = 0; i < this.numPending; i++) {
+					emit(this.pending[i]);
+				}
+			}
+			this.numPending = 0;
+			emit(c);
+		}
+
+		@Override
+		void end() {
+			this.numPending = 0;
+		}
+	}
+
+	/**
+	 * The StripSqlComments removes SQL comments outside of quoted strings and identifiers, line comments are removed
+	 * up to but not including the line ending and block comments are replaced with a single space when they are not
+	 * already next to whitespace so the tokens either side of them are not joined. Quotes are escaped by doubling them
+	 * as in standard SQL.
+	 */
+	static class StripSqlComments extends BufferedTransform {
+
+		private static final int CODE = 0;
+		private static final int SINGLE_QUOTED = 1;
+		private static final int DOUBLE_QUOTED = 2;
+		private static final int AFTER_DASH = 3;
+		private static final int AFTER_SLASH = 4;
+		private static final int LINE_COMMENT = 5;
+		private static final int BLOCK_COMMENT_START = 6;
+		private static final int BLOCK_COMMENT = 7;
+		private static final int BLOCK_COMMENT_STAR = 8;
+		private static final int HINT = 9;
+		private static final int HINT_STAR = 10;
+
+		private int state = CODE;
+		private boolean afterWhitespace = true;
+
+		@Override
+		void process(char c) throws IOException {
+			switch (this.state) {
+				case SINGLE_QUOTED:
+					write(c);
+					if (c == '\'') {
+						this.state = CODE;
+					}
+					break;
+				case DOUBLE_QUOTED:
+					write(c);
+					if (c == '"') {
+						this.state = CODE;
+					}
+					break;
+				case AFTER_DASH:
+					if (c == '-') {
+						this.state = LINE_COMMENT;
+					} else {
+						write('-');
+						this.state = CODE;
+						process(c);
+					}
+					break;
+				case AFTER_SLASH:
+					if (c == '*') {
+						this.state = BLOCK_COMMENT_START;
+					} else {
+						write('/');
+						this.state = CODE;
+						process(c);
+					}
+					break;
+				case LINE_COMMENT:
+					if (c == '\n' || c == '\r') {
+						write(c);
+						this.state = CODE;
+					}
+					break;
+				case BLOCK_COMMENT_START:
+					if (c == '+' || c == '!') {
+						// an optimizer hint or conditional comment, keep it
+						write('/');
+						write('*');
+						write(c);
+						this.state = HINT;
+					} else {
+						this.state = BLOCK_COMMENT;
+						process(c);
+					}
+					break;
+				case BLOCK_COMMENT:
+					if (c == '*') {
+						this.state = BLOCK_COMMENT_STAR;
+					}
+					break;
+				case BLOCK_COMMENT_STAR:
+					if (c == '/') {
+						this.state = CODE;
+						if (!this.afterWhitespace) {
+							write(' ');
+						}
+					} else if (c != '*') {
+						this.state = BLOCK_COMMENT;
+					}
+					break;
+				case HINT:
+				case HINT_STAR:
+					write(c);
+					if (c == '/' && this.state == HINT_STAR) {
+						this.state = CODE;
+					} else {
+						this.state = c == '*' ? HINT_STAR : HINT;
+					}
+					break;
+				default:
+					if (c == '-') {
+						this.state = AFTER_DASH;
+					} else if (c == '/') {
+						this.state = AFTER_SLASH;
+					} else {
+						write(c);
+						if (c == '\'') {
+							this.state = SINGLE_QUOTED;
+						} else if (c == '"') {
+							this.state = DOUBLE_QUOTED;
+						}
+					}
+					break;
+			}
+		}
+
+		private void write(char c) throws IOException {
+			emit(c);
+			this.afterWhitespace = Character.isWhitespace(c);
+		}
+
+		@Override
+		void end() throws IOException {
+			// a trailing dash or slash was not the start of a comment
+			if (this.state == AFTER_DASH) {
+				write('-');
+			} else if (this.state == AFTER_SLASH) {
+				write('/');
+			}
+			this.state = CODE;
+			this.afterWhitespace = true;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The DuplicateCheck represents the strategies for deciding whether two files found by a scan are
+ * the same file, used when duplicates are not allowed
+ * @version $Id$
+ * @author conorroche
+ */
+enum DuplicateCheck {
+
+	/**
+	 * Files are the same if their absolute paths are the same
+	 */
+	PATH {
+
+		@Override
+		Object getKey(File file) {
+			return file.getAbsolutePath();
+		}
+	},
+
+	/**
+	 * Files are the same if their canonical paths are the same, this resolves symbolic links
+	 * and relative path elements
+	 */
+	CANONICAL {
+
+		@Override
+		Object getKey(File file) throws IOException {
+			return file.getCanonicalPath();
+		}
+	},
+
+	/**
+	 * Files are the same if the file system reports the same file key for them (for example the device
+	 * and inode), this also finds hard links. Where the platform has no file keys the canonical path is used
+	 */
+	FILE_KEY {
+
+		@Override
+		Object getKey(File file) throws IOException {
+			Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+			return key != null ? key : file.getCanonicalPath();
+		}
+	};
+
+	/**
+	 * This gets the key identifying the given file, files with equal keys are duplicates
+	 * @param file The file
+	 * @return The key of the file
+	 * @throws IOException If the file could not be read
+	 */
+	abstract Object getKey(File file) throws IOException;
+
+	/**
+	 * This gets the duplicate check with the given name
+	 * @param name The name, one of path, canonical or fileKey (case insensitive), null means path
+	 * @return The duplicate check
+	 * @throws IllegalArgumentException If the name is not a known duplicate check
+	 */
+	static DuplicateCheck forName(String name) {
+		if (name == null || name.trim().length() == 0) {
+			return PATH;
+		}
+		String normalised = name.trim().replace("_", "");
+		for (DuplicateCheck check : values()) {
+			if (check.name().replace("_", "").equalsIgnoreCase(normalised)) {
+				return check;
+			}
+		}
+		throw new IllegalArgumentException("The duplicate check: " + name + " is not one of path, canonical or fileKey");
+	}
+
+}
@@ -34,7 +34,18 @@ public class Merge {
 	private String[] excludes;
 	private String separator;
 	private String encoding;
+	private String targetEncoding;
+	private String compression;
 	private boolean duplicatesAllowed = false;
+	private String duplicateCheck;
+	private boolean dedupByContent = false;
+	private boolean incremental = false;
+	private boolean compareContent = false;
+	private boolean writeIndex = false;
+	private long maxTargetSize;
+	private String[] transforms;
+	private boolean detectEncoding = false;
+	private boolean decompressSources = false;
 
 	/**
 	 * The target file that the files in this merge will be merged into
@@ -94,6 +105,9 @@ public class Merge {
 	 * 2. #{file.name} will be replaced with the name of the file that is being appended into the target file, 
 	 * 3. #{parent.name} will be replaced with the directory name containing the file that is being appended into
 	 * the target file.
+	 * The following variables are also supported: \t for a tab, #{grandparent.name} for the name of the directory
+	 * above the parent, #{file.path} for the path of the file relative to its source directory, #{file.size} for its
+	 * size in bytes, #{file.modified} for its last modified time and #{ordering.name} for the ordering it matched.
 	 * </pre>
 	 * @parameter
 	 * @return the separator to use above files
@@ -122,6 +136,164 @@ public class Merge {
 		this.duplicatesAllowed = duplicatesAllowed;
 	}
 
+	/**
+	 * This is how files are compared when duplicates are not allowed, one of:
+	 * path - the absolute paths of the files are compared, this is the default,
+	 * canonical - the canonical paths of the files are compared which resolves symbolic links,
+	 * fileKey - the file system file keys (e.g. device and inode) are compared which also finds hard links,
+	 * falling back to the canonical path where the platform does not provide file keys
+	 * @parameter
+	 * @return how files are compared when duplicates are not allowed
+	 */
+	public String getDuplicateCheck() {
+		return this.duplicateCheck;
+	}
+
+	/**
+	 * This sets how files are compared when duplicates are not allowed
+	 * @param duplicateCheck one of path, canonical or fileKey
+	 */
+	public void setDuplicateCheck(String duplicateCheck) {
+		this.duplicateCheck = duplicateCheck;
+	}
+
+	/**
+	 * This is whether files whose content is the same as a file already appended to the target file should be skipped,
+	 * default is false. Only files with the same size as an already appended file are hashed and compared.
+	 * @parameter
+	 * @return whether files with duplicate content are skipped
+	 */
+	public boolean isDedupByContent() {
+		return this.dedupByContent;
+	}
+
+	/**
+	 * This sets whether files whose content is the same as a file already appended to the target file should be skipped
+	 * @param dedupByContent whether files with duplicate content are skipped
+	 */
+	public void setDedupByContent(boolean dedupByContent) {
+		this.dedupByContent = dedupByContent;
+	}
+
+	/**
+	 * This is whether the target file should only be merged again when the merge configuration or one of the files
+	 * being merged has changed since it was last merged, default is false so the target file is always merged. When
+	 * turned on a small manifest is kept next to the target file recording the configuration and the path, size and
+	 * last modified time of each merged file.
+	 * @parameter
+	 * @return whether the target file is only merged again when something changed
+	 */
+	public boolean isIncremental() {
+		return this.incremental;
+	}
+
+	/**
+	 * This sets whether the target file should only be merged again when something changed
+	 * @param incremental whether the target file should only be merged again when something changed
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * This is whether the incremental check should also compare a hash of the content of each merged file
+	 * rather than only its size and last modified time, default is false
+	 * @parameter
+	 * @return whether the content of the merged files is compared when checking if the target is up to date
+	 */
+	public boolean isCompareContent() {
+		return this.compareContent;
+	}
+
+	/**
+	 * This sets whether the incremental check should also compare a hash of the content of each merged file
+	 * @param compareContent whether the content of the merged files is compared
+	 */
+	public void setCompareContent(boolean compareContent) {
+		this.compareContent = compareContent;
+	}
+
+	/**
+	 * This is whether a byte range index should be written next to the target file, default is false. The index
+	 * records the ordering name, path and start and end byte offsets in the target file of each merged file and is
+	 * read with the MergeIndexReader. It is only written for uncompressed target files.
+	 * @parameter
+	 * @return whether a byte range index is written next to the target file
+	 */
+	public boolean isWriteIndex() {
+		return this.writeIndex;
+	}
+
+	/**
+	 * This sets whether a byte range index should be written next to the target file
+	 * @param writeIndex whether a byte range index is written next to the target file
+	 */
+	public void setWriteIndex(boolean writeIndex) {
+		this.writeIndex = writeIndex;
+	}
+
+	/**
+	 * This is whether the encoding of each file is detected from its byte order mark, default is false. Files starting
+	 * with a UTF-8, UTF-16 or UTF-32 byte order mark are read with that encoding and the byte order mark is dropped,
+	 * other files are read with the source encoding. Files already in the target encoding are still appended as raw bytes.
+	 * @parameter
+	 * @return whether the encoding of each file is detected from its byte order mark
+	 */
+	public boolean isDetectEncoding() {
+		return this.detectEncoding;
+	}
+
+	/**
+	 * This sets whether the encoding of each file is detected from its byte order mark
+	 * @param detectEncoding whether the encoding of each file is detected from its byte order mark
+	 */
+	public void setDetectEncoding(boolean detectEncoding) {
+		this.detectEncoding = detectEncoding;
+	}
+
+	/**
+	 * This is whether source files whose name ends in .gz are decompressed as they are read, default is false in which
+	 * case they are appended as they are like any other file
+	 * @parameter
+	 * @return whether source files ending in .gz are decompressed as they are read
+	 */
+	public boolean isDecompressSources() {
+		return this.decompressSources;
+	}
+
+	/**
+	 * This sets whether source files whose name ends in .gz are decompressed as they are read
+	 * @param decompressSources whether source files ending in .gz are decompressed as they are read
+	 */
+	public void setDecompressSources(boolean decompressSources) {
+		this.decompressSources = decompressSources;
+	}
+
+	/**
+	 * This is an optional maximum size in bytes of the target file. When set the merged files are written to a series
+	 * of part files named after the target file with a 4 digit part number before its extension e.g. merged-0001.sql,
+	 * merged-0002.sql along with a properties file named after the target file with a .parts suffix listing the parts.
+	 * Parts are only split at file boundaries, a single file bigger than the maximum size is written to a part of its own.
+	 * When the files are transcoded or compressed the size of each file before it is transcoded or compressed is used.
+	 * @parameter
+	 * @return the maximum size of the target file in bytes, 0 if the target file is not split
+	 */
+	public long getMaxTargetSize() {
+		return this.maxTargetSize;
+	}
+
+	/**
+	 * This is an optional list of transforms applied in order to the content of each file as it is appended. The built in
+	 * transforms are stripBom, lf, crlf, trimTrailingWhitespace and stripSqlComments (removes -- and block comments outside
+	 * of quotes keeping optimizer hints), any other value is the class name of a croche.maven.plugin.merge.ContentTransform
+	 * on the plugin classpath. When transforms are configured the files are decoded even if no transcoding is needed.
+	 * @parameter
+	 * @return the names of the transforms to apply to each file
+	 */
+	public String[] getTransforms() {
+		return this.transforms;
+	}
+
 	/**
 	 * This is an optional encoding to use when reading/writing the files being merged, if not specified
 	 * then UTF-8 will be used
@@ -132,6 +304,29 @@ public class Merge {
 		return this.encoding;
 	}
 
+	/**
+	 * This is an optional encoding to use when writing the target file, if not specified then the
+	 * encoding used for reading the files being merged will be used. When the source and target encodings
+	 * are the same the files are appended as raw bytes without being decoded, otherwise each file is
+	 * transcoded from the source encoding into the target encoding
+	 * @parameter
+	 * @return the encoding to use for writing the target file
+	 */
+	public String getTargetEncoding() {
+		return this.targetEncoding;
+	}
+
+	/**
+	 * This is an optional compression to apply to the target file while it is written, one of none (the default), gzip,
+	 * zstd or lz4. zstd requires io.airlift:aircompressor and lz4 requires org.lz4:lz4-java to be added as dependencies
+	 * of the plugin. Source files ending in .gz are only decompressed when decompressSources is set.
+	 * @parameter
+	 * @return the compression to apply to the target file
+	 */
+	public String getCompression() {
+		return this.compression;
+	}
+
 	/**
 	 * Gets the comma separated list of effective include patterns.
 	 * @return The comma separated list of effective include patterns, never <code>null</code>.
@@ -168,9 +363,16 @@ public class Merge {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("Merge [encoding=").append(this.encoding).append(", includes=").append(Arrays.toString(this.includes))
-				.append(", nameContainsOrderings=").append(Arrays.toString(this.nameContainsOrderings)).append(", separator=").append(this.separator).append(
-						", sourceDirs=").append(Arrays.toString(this.sourceDirs)).append(", targetFile=").append(this.targetFile).append("]");
+		builder.append("Merge [encoding=").append(this.encoding).append(", targetEncoding=").append(this.targetEncoding).append(", compression=")
+				.append(this.compression).append(", includes=")
+				.append(Arrays.toString(this.includes)).append(", excludes=").append(Arrays.toString(this.excludes)).append(", nameContainsOrderings=")
+				.append(Arrays.toString(this.nameContainsOrderings)).append(", separator=").append(this.separator).append(", sourceDirs=")
+				.append(Arrays.toString(this.sourceDirs)).append(", targetFile=").append(this.targetFile).append(", duplicatesAllowed=")
+				.append(this.duplicatesAllowed).append(", duplicateCheck=").append(this.duplicateCheck).append(", compareContent=")
+				.append(this.compareContent).append(", dedupByContent=").append(this.dedupByContent)
+				.append(", writeIndex=").append(this.writeIndex).append(", maxTargetSize=").append(this.maxTargetSize)
+				.append(", transforms=").append(Arrays.toString(this.transforms)).append(", detectEncoding=").append(this.detectEncoding)
+				.append(", decompressSources=").append(this.decompressSources).append("]");
 		return builder.toString();
 	}
 
@@ -0,0 +1,326 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergeCache keeps merged target files in a local directory shared by all builds on the machine so a target
+ * file that was already merged from the same content with the same configuration, by another module or branch,
+ * can be copied from the cache rather than being merged again. Entries are keyed by a hash of the parts of
+ * the merge configuration that affect the content of the target file and the content hash of each file in the order
+ * they are appended. When the cache grows bigger than its maximum size the least recently used entries are removed, the
+ * last use of each entry is recorded in the modified time of a small marker file next to it so the cached files
+ * themselves are never changed.
+ * Instances are safe to share between threads and several builds can use the same cache directory.
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeCache {
+
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final String KEY_VERSION = "croche-merge-cache-1";
+	private static final String DATA_SUFFIX = ".data";
+	private static final String INDEX_SUFFIX = ".index";
+	private static final String USED_SUFFIX = ".used";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File cacheDir;
+	private final long maxSize;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private final AtomicLong bytesRestored = new AtomicLong();
+
+	/**
+	 * This creates a MergeCache
+	 * @param cacheDir The directory holding the cached target files, created if it does not exist
+	 * @param maxSize The maximum size of the cache in bytes
+	 */
+	MergeCache(File cacheDir, long maxSize) {
+		this.cacheDir = cacheDir;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * This builds the key of the target file of the given prepared merge, the key covers the configuration that changes
+	 * how the files are written and for each file in order its content hash and rendered separator along with its path and
+	 * ordering name when a byte range index is written as the index records them
+	 * @param context The merge context
+	 * @param entries The entries to append in order
+	 * @param writeIndex Whether a byte range index is written next to the target file
+	 * @return The key
+	 * @throws IOException If a file could not be read
+	 */
+	String getKey(MergeContext context, List<MergeEntry> entries, boolean writeIndex) throws IOException {
+		Merge merge = context.merge;
+		MessageDigest digest = newDigest();
+		update(digest, KEY_VERSION);
+		update(digest, merge.getSeparator());
+		update(digest, context.sourceCharset.name());
+		update(digest, context.targetCharset.name());
+		update(digest, context.compression.name());
+		update(digest, merge.getTransforms() == null ? null : Arrays.toString(merge.getTransforms()));
+		update(digest, String.valueOf(writeIndex));
+		update(digest, String.valueOf(merge.isDetectEncoding()));
+		update(digest, String.valueOf(merge.isDecompressSources()));
+
+		SeparatorTemplate separator = MergeMojo.compileSeparator(merge);
+		StringBuilder separatorBuilder = new StringBuilder();
+		MessageDigest contentDigest = newDigest();
+		byte[] buffer = new byte[8192];
+		for (MergeEntry entry : entries) {
+			InputStream input = null;
+			try {
+				input = new FileInputStream(entry.file);
+				int read;
+				while ((read = input.read(buffer)) != -1) {
+					contentDigest.update(buffer, 0, read);
+				}
+			} finally {
+				IOUtils.closeQuietly(input);
+			}
+			digest.update(contentDigest.digest());
+			if (separator != null) {
+				separatorBuilder.setLength(0);
+				separator.render(separatorBuilder, entry.file, entry.sourceDir, entry.orderingName);
+				update(digest, separatorBuilder.toString());
+			}
+			if (writeIndex) {
+				update(digest, entry.file.getAbsolutePath());
+				update(digest, entry.orderingName);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * This gets whether there is a cached target file for the given key
+	 * @param key The key of the target file
+	 * @return True if the cache holds the target file
+	 */
+	boolean contains(String key) {
+		return getDataFile(key).isFile();
+	}
+
+	/**
+	 * This restores the cached target file with the given key, the cached file is copied rather than linked so
+	 * the target file can be changed without changing the cache entry or the target files of other builds
+	 * @param key The key of the target file
+	 * @param targetFile The target file to restore, it must not exist
+	 * @param withIndex Whether the byte range index of the target file should be restored too
+	 * @return True if the target file was restored, false if the cache does not hold it
+	 * @throws IOException If the cached file could not be copied
+	 */
+	boolean restore(String key, File targetFile, boolean withIndex) throws IOException {
+		File dataFile = getDataFile(key);
+		File indexFile = getIndexFile(key);
+		if (!dataFile.isFile() || (withIndex && !indexFile.isFile())) {
+			return false;
+		}
+		try {
+			copyOut(dataFile, targetFile);
+			if (withIndex) {
+				copyOut(indexFile, MergeIndex.getIndexFile(targetFile));
+			}
+		} catch (IOException ioe) {
+			// the entry may have been evicted by another build
+			targetFile.delete();
+			MergeIndex.getIndexFile(targetFile).delete();
+			throw ioe;
+		}
+		markUsed(key);
+		this.hits.incrementAndGet();
+		this.bytesRestored.addAndGet(dataFile.length());
+		return true;
+	}
+
+	/**
+	 * This records a miss for a target file that was not in the cache and had to be merged
+	 */
+	void miss() {
+		this.misses.incrementAndGet();
+	}
+
+	/**
+	 * This stores the given merged target file in the cache, the file is copied to a temporary file in the cache
+	 * directory first and then moved into place so other builds never see a partly written entry
+	 * @param key The key of the target file
+	 * @param targetFile The merged target file
+	 * @param withIndex Whether the byte range index of the target file should be stored too
+	 * @throws IOException If the target file could not be stored
+	 */
+	void store(String key, File targetFile, boolean withIndex) throws IOException {
+		if (!this.cacheDir.isDirectory() && !this.cacheDir.mkdirs() && !this.cacheDir.isDirectory()) {
+			throw new IOException("Failed to create the merge cache directory: " + this.cacheDir.getAbsolutePath());
+		}
+		// the index goes in first so a cached target file always has its index
+		if (withIndex) {
+			copyIn(MergeIndex.getIndexFile(targetFile), getIndexFile(key));
+		}
+		copyIn(targetFile, getDataFile(key));
+	}
+
+	/**
+	 * This removes the least recently used entries until the cache is no bigger than its maximum size
+	 * @return The number of entries removed
+	 */
+	int evict() {
+		File[] files = this.cacheDir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		List<Entry> entries = new ArrayList<Entry>(files.length);
+		long size = 0;
+		for (File file : files) {
+			if (file.getName().endsWith(DATA_SUFFIX)) {
+				// read the times once as other builds may use entries while they are sorted, an entry that was never
+				// restored was last used when it was stored
+				long lastUsed = Math.max(file.lastModified(), getSiblingFile(file, USED_SUFFIX).lastModified());
+				Entry entry = new Entry(file, lastUsed, file.length() + getSiblingFile(file, INDEX_SUFFIX).length());
+				entries.add(entry);
+				size += entry.size;
+			}
+		}
+		if (size <= this.maxSize) {
+			return 0;
+		}
+		Collections.sort(entries, new Comparator<Entry>() {
+
+			public int compare(Entry o1, Entry o2) {
+				return o1.lastUsed < o2.lastUsed ? -1 : o1.lastUsed == o2.lastUsed ? 0 : 1;
+			}
+		});
+		int removed = 0;
+		for (Entry entry : entries) {
+			if (size <= this.maxSize) {
+				break;
+			}
+			if (entry.dataFile.delete()) {
+				getSiblingFile(entry.dataFile, INDEX_SUFFIX).delete();
+				getSiblingFile(entry.dataFile, USED_SUFFIX).delete();
+				size -= entry.size;
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * This gets a summary of how the cache was used for the build log
+	 * @return The summary
+	 */
+	String getSummary() {
+		return "Merge cache: " + this.hits.get() + " hits, " + this.misses.get() + " misses, restored: " + this.bytesRestored.get()
+				+ " bytes from: " + this.cacheDir.getAbsolutePath();
+	}
+
+	private File getDataFile(String key) {
+		return new File(this.cacheDir, key + DATA_SUFFIX);
+	}
+
+	private File getIndexFile(String key) {
+		return new File(this.cacheDir, key + INDEX_SUFFIX);
+	}
+
+	private static File getSiblingFile(File dataFile, String suffix) {
+		String name = dataFile.getName();
+		return new File(dataFile.getParentFile(), name.substring(0, name.length() - DATA_SUFFIX.length()) + suffix);
+	}
+
+	private void markUsed(String key) {
+		File usedFile = new File(this.cacheDir, key + USED_SUFFIX);
+		try {
+			if (!usedFile.createNewFile()) {
+				usedFile.setLastModified(System.currentTimeMillis());
+			}
+		} catch (IOException ioe) {
+			// the entry is then evicted as if it was last used when it was stored
+		}
+	}
+
+	private static void copyOut(File cached, File target) throws IOException {
+		// the target file is replaced rather than written in place so it never shares its content with the cache
+		Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void copyIn(File source, File cached) throws IOException {
+		File temp = File.createTempFile("merge", ".tmp", this.cacheDir);
+		try {
+			Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * The Entry holds the details of a cached target file used to pick the entries to evict
+	 */
+	private static class Entry {
+
+		final File dataFile;
+		final long lastUsed;
+		final long size;
+
+		Entry(File dataFile, long lastUsed, long size) {
+			this.dataFile = dataFile;
+			this.lastUsed = lastUsed;
+			this.size = size;
+		}
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(UTF8));
+		}
+		// terminate each value so adjacent values can not run into each other
+		digest.update((byte) 0);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException nsae) {
+			// every jvm is required to support SHA-256
+			throw new IllegalStateException(nsae);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import croche.maven.shared.FileScanner;
+import croche.maven.shared.ProgressReporter;
+
+/**
+ * The MergeContext holds the state built up while processing a single merge so that
+ * several merges can be processed at the same time by the same mojo
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeContext {
+
+	final Merge merge;
+	List<String> orderingNames;
+	boolean useOrdering;
+	OrderingMatcher orderingMatcher;
+	// the scanned source directories and the files matching the merge in each of them
+	FileScanner scanner;
+	List<File> scanDirs;
+	List<List<File>> matchingFiles;
+	Map<String, List<File>> orderedFiles;
+	DuplicateCheck duplicateCheck = DuplicateCheck.PATH;
+	Set<Object> addedFiles;
+	// the source directory each ordered file was found in
+	Map<File, File> sourceDirs;
+	// how the target file is written, resolved before the files are merged
+	Charset sourceCharset;
+	Charset targetCharset;
+	Compression compression = Compression.NONE;
+	List<ContentTransform> transforms;
+	// the files to append and the manifest to record once the merge is prepared, null if the target file is up to date
+	List<MergeEntry> entries;
+	MergeManifest manifest;
+	// the manifest recorded when the target file was last merged, null if there is none or the merge is forced
+	MergeManifest previousManifest;
+	// the key of the target file in the merge cache and whether the cache holds it, null when it is not cached
+	String cacheKey;
+	boolean cacheHit;
+	// reports the progress of writing the target file, null until it is being written
+	ProgressReporter progress;
+
+	/**
+	 * This creates a MergeContext
+	 * @param merge The merge config this context is for
+	 */
+	MergeContext(Merge merge) {
+		this.merge = merge;
+	}
+
+	/**
+	 * This resets the scan state ready for the source directories to be scanned
+	 */
+	void startScan() {
+		this.orderedFiles = new HashMap<String, List<File>>(this.orderingNames.size());
+		this.addedFiles = new HashSet<Object>();
+		this.sourceDirs = new HashMap<File, File>();
+	}
+
+	/**
+	 * This gets the files found by the scan in the order they will be appended to the target file
+	 * @return The ordered files
+	 */
+	List<File> getOrderedFiles() {
+		List<File> files = new ArrayList<File>();
+		for (String orderingName : this.orderingNames) {
+			List<File> orderingFiles = this.orderedFiles.get(orderingName);
+			if (orderingFiles != null) {
+				files.addAll(orderingFiles);
+			}
+		}
+		return files;
+	}
+
+}
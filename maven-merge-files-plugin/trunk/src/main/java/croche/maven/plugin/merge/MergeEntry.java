@@ -0,0 +1,44 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+
+/**
+ * The MergeEntry represents a single file to be appended to a target file along with what is needed
+ * to render the separator to write above it
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeEntry {
+
+	final File file;
+	// the size of the file when the merge was prepared
+	final long size;
+	final String orderingName;
+	final File sourceDir;
+
+	/**
+	 * This creates a MergeEntry
+	 * @param file The file to append
+	 * @param orderingName The name of the ordering the file matched, null if it matched none
+	 * @param sourceDir The source directory the file was found in
+	 */
+	MergeEntry(File file, String orderingName, File sourceDir) {
+		this.file = file;
+		this.size = file.length();
+		this.orderingName = orderingName;
+		this.sourceDir = sourceDir;
+	}
+
+}
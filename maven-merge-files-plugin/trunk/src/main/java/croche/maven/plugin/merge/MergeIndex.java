@@ -0,0 +1,107 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The MergeIndex records where each merged file ended up in a target file and writes it to a small binary
+ * sidecar file next to the target file. The index file holds a header, a fixed size record with the start
+ * and end byte offsets of the content of each merged file and then the ordering name and absolute path of
+ * each merged file. It is read using the {@link MergeIndexReader}.
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeIndex {
+
+	static final String INDEX_SUFFIX = ".merge-index";
+	static final int MAGIC = 0x4D494458;
+	static final int VERSION = 1;
+
+	private final List<String> orderingNames = new ArrayList<String>();
+	private final List<String> paths = new ArrayList<String>();
+	private long[] offsets = new long[64];
+
+	/**
+	 * This adds a merged file to the index, files must be added in the order they appear in the target file
+	 * @param orderingName The name of the ordering the file matched, may be null
+	 * @param file The merged file
+	 * @param start The offset in the target file of the first byte of the content of the file
+	 * @param end The offset in the target file just after the last byte of the content of the file
+	 */
+	void add(String orderingName, File file, long start, long end) {
+		int index = this.paths.size();
+		if (this.offsets.length < (index + 1) * 2) {
+			long[] offsets = new long[this.offsets.length * 2];
+			System.arraycopy(this.offsets, 0, offsets, 0, this.offsets.length);
+			this.offsets = offsets;
+		}
+		this.offsets[index * 2] = start;
+		this.offsets[index * 2 + 1] = end;
+		this.orderingNames.add(orderingName == null ? "" : orderingName);
+		this.paths.add(file.getAbsolutePath());
+	}
+
+	/**
+	 * This gets the number of files in the index
+	 * @return The number of files
+	 */
+	int size() {
+		return this.paths.size();
+	}
+
+	/**
+	 * This writes the index file of the given target file
+	 * @param targetFile The target file the index is for, it must already be written
+	 * @throws IOException If the index file could not be written
+	 */
+	void write(File targetFile) throws IOException {
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(targetFile))));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(this.paths.size());
+			output.writeLong(targetFile.length());
+			for (int i = 0; i < this.paths.size() * 2; i++) {
+				output.writeLong(this.offsets[i]);
+			}
+			for (int i = 0; i < this.paths.size(); i++) {
+				output.writeUTF(this.orderingNames.get(i));
+				output.writeUTF(this.paths.get(i));
+			}
+			output.close();
+			output = null;
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * This gets the index file of the given target file
+	 * @param targetFile The target file
+	 * @return The index file which lives next to the target file
+	 */
+	static File getIndexFile(File targetFile) {
+		return new File(targetFile.getAbsolutePath() + INDEX_SUFFIX);
+	}
+
+}
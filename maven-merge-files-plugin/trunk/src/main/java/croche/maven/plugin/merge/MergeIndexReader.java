@@ -0,0 +1,167 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The MergeIndexReader gives random access to the sections of a merged target file using the index written
+ * next to it when the writeIndex option of the merge is enabled. Each section is the content of one merged file,
+ * it can be looked up by its position in the target file or by a byte offset of the target file and is read
+ * through a memory mapped view of just that section of the target file. Instances are not thread safe.
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeIndexReader {
+
+	private final RandomAccessFile target;
+	private final FileChannel channel;
+	private final long[] offsets;
+	private final String[] orderingNames;
+	private final String[] paths;
+
+	/**
+	 * This opens the given target file and reads its index
+	 * @param targetFile The merged target file
+	 * @throws IOException If the index could not be read or does not match the target file
+	 */
+	public MergeIndexReader(File targetFile) throws IOException {
+		File indexFile = MergeIndex.getIndexFile(targetFile);
+		DataInputStream input = null;
+		long targetSize;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (input.readInt() != MergeIndex.MAGIC) {
+				throw new IOException("The file: " + indexFile.getAbsolutePath() + " is not a merge index");
+			}
+			int version = input.readInt();
+			if (version != MergeIndex.VERSION) {
+				throw new IOException("The version: " + version + " of the merge index: " + indexFile.getAbsolutePath() + " is not supported");
+			}
+			int size = input.readInt();
+			targetSize = input.readLong();
+			this.offsets = new long[size * 2];
+			for (int i = 0; i < this.offsets.length; i++) {
+				this.offsets[i] = input.readLong();
+			}
+			this.orderingNames = new String[size];
+			this.paths = new String[size];
+			for (int i = 0; i < size; i++) {
+				String orderingName = input.readUTF();
+				this.orderingNames[i] = orderingName.length() == 0 ? null : orderingName;
+				this.paths[i] = input.readUTF();
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		if (targetFile.length() != targetSize) {
+			throw new IOException("The target file: " + targetFile.getAbsolutePath() + " was modified since its merge index was written");
+		}
+		this.target = new RandomAccessFile(targetFile, "r");
+		this.channel = this.target.getChannel();
+	}
+
+	/**
+	 * This gets the number of sections in the target file
+	 * @return The number of sections
+	 */
+	public int size() {
+		return this.paths.length;
+	}
+
+	/**
+	 * This gets the absolute path of the file the given section was merged from
+	 * @param section The index of the section
+	 * @return The path of the merged file
+	 */
+	public String getPath(int section) {
+		return this.paths[section];
+	}
+
+	/**
+	 * This gets the name of the ordering the file of the given section matched
+	 * @param section The index of the section
+	 * @return The ordering name or null if the file matched no ordering
+	 */
+	public String getOrderingName(int section) {
+		return this.orderingNames[section];
+	}
+
+	/**
+	 * This gets the offset in the target file of the first byte of the given section
+	 * @param section The index of the section
+	 * @return The start offset
+	 */
+	public long getStart(int section) {
+		return this.offsets[section * 2];
+	}
+
+	/**
+	 * This gets the offset in the target file just after the last byte of the given section
+	 * @param section The index of the section
+	 * @return The end offset
+	 */
+	public long getEnd(int section) {
+		return this.offsets[section * 2 + 1];
+	}
+
+	/**
+	 * This finds the section containing the given byte offset of the target file
+	 * @param offset The offset in the target file
+	 * @return The index of the section or -1 if the offset is in a separator or outside the target file
+	 */
+	public int find(long offset) {
+		int low = 0;
+		int high = this.paths.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (offset < getStart(mid)) {
+				high = mid - 1;
+			} else if (offset >= getEnd(mid)) {
+				low = mid + 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * This maps the given section of the target file into memory
+	 * @param section The index of the section
+	 * @return A read only buffer holding the bytes of the section
+	 * @throws IOException If the section could not be mapped
+	 */
+	public ByteBuffer getSection(int section) throws IOException {
+		long start = getStart(section);
+		return this.channel.map(FileChannel.MapMode.READ_ONLY, start, getEnd(section) - start);
+	}
+
+	/**
+	 * This closes the target file, buffers already returned remain readable
+	 * @throws IOException If the target file could not be closed
+	 */
+	public void close() throws IOException {
+		this.target.close();
+	}
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The MergeManifest records the configuration and the inputs that a target file was merged from so that
+ * a later build can tell whether the target needs to be merged again. It is stored as a properties file
+ * next to the target file.
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeManifest {
+
+	static final String MANIFEST_SUFFIX = ".merge-manifest";
+	private static final String HASH_ALGORITHM = "MD5";
+
+	private String configHash;
+	private long targetSize = -1;
+	private long targetModified = -1;
+	private String cacheKey;
+	private final List<Input> inputs = new ArrayList<Input>();
+
+	/**
+	 * The Input represents a single file that was merged into the target file
+	 */
+	static class Input {
+
+		String path;
+		long size;
+		long modified;
+		String contentHash;
+
+	}
+
+	/**
+	 * This gets the manifest file used for the given target file
+	 * @param targetFile The merge target file
+	 * @return The manifest file which lives next to the target file
+	 */
+	static File getManifestFile(File targetFile) {
+		return new File(targetFile.getAbsolutePath() + MANIFEST_SUFFIX);
+	}
+
+	/**
+	 * This builds the manifest describing the current state of the given merge
+	 * @param merge The merge config
+	 * @param files The files to be merged in the order they will be appended
+	 * @return The manifest
+	 * @throws IOException If a content hash was requested and a file could not be read
+	 */
+	static MergeManifest build(Merge merge, List<File> files) throws IOException {
+		MergeManifest manifest = new MergeManifest();
+		manifest.configHash = hash(merge.toString());
+		for (File file : files) {
+			Input input = new Input();
+			input.path = file.getAbsolutePath();
+			input.size = file.length();
+			input.modified = file.lastModified();
+			if (merge.isCompareContent()) {
+				input.contentHash = hash(file);
+			}
+			manifest.inputs.add(input);
+		}
+		return manifest;
+	}
+
+	/**
+	 * This reads the manifest previously written for the given target file
+	 * @param targetFile The merge target file
+	 * @return The manifest or null if there is no manifest for the target file
+	 * @throws IOException If the manifest exists but could not be read
+	 */
+	static MergeManifest read(File targetFile) throws IOException {
+		File manifestFile = getManifestFile(targetFile);
+		if (!manifestFile.exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(manifestFile);
+			props.load(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+
+		MergeManifest manifest = new MergeManifest();
+		try {
+			manifest.configHash = props.getProperty("config");
+			manifest.targetSize = Long.parseLong(props.getProperty("target.size", "-1"));
+			manifest.targetModified = Long.parseLong(props.getProperty("target.modified", "-1"));
+			manifest.cacheKey = props.getProperty("cache.key");
+			int numFiles = Integer.parseInt(props.getProperty("files", "0"));
+			for (int i = 0; i < numFiles; i++) {
+				Input in = new Input();
+				in.path = props.getProperty("file." + i + ".path");
+				in.size = Long.parseLong(props.getProperty("file." + i + ".size", "-1"));
+				in.modified = Long.parseLong(props.getProperty("file." + i + ".modified", "-1"));
+				in.contentHash = props.getProperty("file." + i + ".hash");
+				manifest.inputs.add(in);
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IOException("The merge manifest: " + manifestFile.getAbsolutePath() + " is corrupt", nfe);
+		}
+		return manifest;
+	}
+
+	/**
+	 * This writes this manifest next to the given target file, it should be called after the target
+	 * file has been written so that the target file size and modified time can be recorded
+	 * @param targetFile The merge target file
+	 * @throws IOException If the manifest could not be written
+	 */
+	void write(File targetFile) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("config", this.configHash);
+		props.setProperty("target.size", String.valueOf(targetFile.length()));
+		props.setProperty("target.modified", String.valueOf(targetFile.lastModified()));
+		if (this.cacheKey != null) {
+			props.setProperty("cache.key", this.cacheKey);
+		}
+		props.setProperty("files", String.valueOf(this.inputs.size()));
+		for (int i = 0; i < this.inputs.size(); i++) {
+			Input in = this.inputs.get(i);
+			props.setProperty("file." + i + ".path", in.path);
+			props.setProperty("file." + i + ".size", String.valueOf(in.size));
+			props.setProperty("file." + i + ".modified", String.valueOf(in.modified));
+			if (in.contentHash != null) {
+				props.setProperty("file." + i + ".hash", in.contentHash);
+			}
+		}
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(getManifestFile(targetFile));
+			props.store(output, "Generated by the maven-merge-file-plugin, do not edit");
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * This compares this manifest with the one written when the target file was last merged
+	 * @param previous The previous manifest, may be null
+	 * @param targetFile The merge target file
+	 * @return The reason the target file needs to be merged again or null if it is up to date
+	 */
+	String getChangeReason(MergeManifest previous, File targetFile) {
+		if (!targetFile.exists()) {
+			return "the target file does not exist";
+		}
+		if (previous == null) {
+			return "there is no merge manifest for it";
+		}
+		if (previous.targetSize != targetFile.length() || previous.targetModified != targetFile.lastModified()) {
+			return "the target file was modified since it was merged";
+		}
+		return getInputChangeReason(previous);
+	}
+
+	/**
+	 * This compares the configuration and the files to merge of this manifest with the given one
+	 * @param previous The previous manifest
+	 * @return The reason the merge changed or null if it is merged the same way from the same files
+	 */
+	private String getInputChangeReason(MergeManifest previous) {
+		if (!this.configHash.equals(previous.configHash)) {
+			return "the merge configuration changed";
+		}
+		if (this.inputs.size() != previous.inputs.size()) {
+			return "the number of files to merge changed from: " + previous.inputs.size() + " to: " + this.inputs.size();
+		}
+		for (int i = 0; i < this.inputs.size(); i++) {
+			Input current = this.inputs.get(i);
+			Input old = previous.inputs.get(i);
+			if (!current.path.equals(old.path)) {
+				return "the files to merge or their order changed at: " + current.path;
+			}
+			if (current.size != old.size || current.modified != old.modified) {
+				return "the file: " + current.path + " was modified";
+			}
+			if (current.contentHash != null && !current.contentHash.equals(old.contentHash)) {
+				return "the content of the file: " + current.path + " changed";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * This gets the merge cache key recorded in the given manifest when the files to merge and the configuration are the
+	 * same as in this manifest, so the files do not need to be read again to work out the key
+	 * @param previous The previous manifest, may be null
+	 * @return The previous cache key or null if there is none or the merge changed
+	 */
+	String getUnchangedCacheKey(MergeManifest previous) {
+		if (previous == null || previous.cacheKey == null || getInputChangeReason(previous) != null) {
+			return null;
+		}
+		return previous.cacheKey;
+	}
+
+	/**
+	 * This sets the merge cache key of the target file to record with the manifest
+	 * @param cacheKey The cache key, may be null if the target file is not cached
+	 */
+	void setCacheKey(String cacheKey) {
+		this.cacheKey = cacheKey;
+	}
+
+	private static String hash(String value) throws IOException {
+		MessageDigest digest = newDigest();
+		return toHex(digest.digest(value.getBytes("UTF-8")));
+	}
+
+	private static String hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException nsae) {
+			// every jvm is required to support MD5
+			throw new IllegalStateException(nsae);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+
+}
@@ -12,38 +12,46 @@
  */
 package croche.maven.plugin.merge;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStreamWriter;
-import java.io.StringReader;
-import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.codehaus.plexus.util.FileUtils;
+
+import croche.maven.shared.FileScanner;
+import croche.maven.shared.ProgressReporter;
+import croche.maven.shared.SeparatorTemplate;
 
 /**
  * Goal which merges text files from a series of directories into a single text output file
  * @goal merge
  * @phase process-resources
  * @requiresProject
+ * @threadSafe
  */
 public class MergeMojo extends AbstractMojo {
 
 	private static final String DEFAULT_ENCODING = "UTF-8";
 	private static final String DEFAULT_ORDERING_NAME = "MergeMojoDefaultOrdering";
+	private static final String ORDERING_NAME_VARIABLE = "ordering.name";
 	private static final List<String> DEFAULT_ORDERING = new ArrayList<String>(1);
 	static {
 		DEFAULT_ORDERING.add(DEFAULT_ORDERING_NAME);
@@ -80,116 +88,1114 @@ public class MergeMojo extends AbstractMojo {
 	 */
 	private Merge[] merges;
 
-	private Map<String, List<File>> orderedFiles;
-	private boolean useOrdering;
-	private List<String> orderingNames;
-	private Set<String> addedFiles;
+	/**
+	 * The number of threads used to scan the source directories of a merge concurrently and to write
+	 * the parts of target files split into parts, if not set then the number of available processors is used
+	 * @parameter expression="${merge.scanThreads}"
+	 */
+	private int scanThreads;
+
+	/**
+	 * This is whether the target files should be merged again even when they are up to date
+	 * @parameter expression="${merge.force}" default-value="false"
+	 */
+	private boolean force;
+
+	/**
+	 * The maximum number of merges to process at the same time, merges that write to the same target file
+	 * are always processed one after another in the order they are configured and merges that merge the target
+	 * file of another merge are only started once it is written. If not set then the number of available
+	 * processors is used
+	 * @parameter expression="${merge.threads}"
+	 */
+	private int threads;
+
+	/**
+	 * This is whether merged target files should be kept in a local cache shared by all builds on the machine, a target
+	 * file merged from the same content with the same configuration by another module or branch is then copied
+	 * from the cache rather than being merged again. Target files split into parts are not cached. The files of a
+	 * target file are only hashed when its merge manifest shows that they changed since it was last merged.
+	 * @parameter expression="${merge.cache}" default-value="false"
+	 */
+	private boolean cache;
+
+	/**
+	 * The directory of the local merge cache
+	 * @parameter expression="${merge.cacheDir}" default-value="${user.home}/.m2/croche-merge-cache"
+	 */
+	private File cacheDir;
+
+	/**
+	 * The maximum size of the local merge cache in bytes, the least recently used target files are removed from
+	 * the cache at the end of the build when it grows bigger than this
+	 * @parameter expression="${merge.cacheMaxSize}" default-value="536870912"
+	 */
+	private long cacheMaxSize;
+
+	/**
+	 * The minimum number of milliseconds between the progress lines logged while a target file is written, the name
+	 * of each appended file is only logged at debug level
+	 * @parameter expression="${merge.progressInterval}" default-value="5000"
+	 */
+	private long progressInterval;
+
+	private ForkJoinPool ioPool;
+	private MergeCache mergeCache;
 
 	/**
 	 * @see org.apache.maven.plugin.AbstractMojo#execute()
 	 */
 	public void execute() throws MojoExecutionException, MojoFailureException {
+		Map<File, List<MergeContext>> targetMerges = buildContexts();
+
+		if (this.cache) {
+			this.mergeCache = new MergeCache(this.cacheDir, this.cacheMaxSize);
+		}
+		startIoPool();
+		try {
+			processGroups(targetMerges.values());
+		} finally {
+			stopIoPool();
+			if (this.mergeCache != null) {
+				int evicted = this.mergeCache.evict();
+				getLog().info(this.mergeCache.getSummary() + ", evicted: " + evicted + " entries.");
+				this.mergeCache = null;
+			}
+		}
+	}
+
+	/**
+	 * This creates the context of each configured merge grouped by target file, merges within a group must run in order
+	 * @return The contexts of the merges grouped by their absolute target file in configuration order
+	 */
+	Map<File, List<MergeContext>> buildContexts() {
+		Map<File, List<MergeContext>> targetMerges = new LinkedHashMap<File, List<MergeContext>>();
 		for (Merge merge : this.merges) {
+			File targetFile = merge.getTargetFile().getAbsoluteFile();
+			List<MergeContext> group = targetMerges.get(targetFile);
+			if (group == null) {
+				group = new ArrayList<MergeContext>(1);
+				targetMerges.put(targetFile, group);
+			}
+			group.add(new MergeContext(merge));
+		}
+		return targetMerges;
+	}
 
-			// remove target file if present...
-			if (merge.getTargetFile().exists()) {
-				merge.getTargetFile().delete();
+	/**
+	 * This creates the io fork join pool used to scan directories and copy files
+	 */
+	void startIoPool() {
+		this.ioPool = new ForkJoinPool(getScanThreads());
+	}
+
+	/**
+	 * This shuts down the io fork join pool
+	 */
+	void stopIoPool() {
+		this.ioPool.shutdownNow();
+		this.ioPool = null;
+	}
+
+	/**
+	 * This processes the given groups of merges. Merges that read the target files written by other merges are processed
+	 * after them, so the groups are split into levels each of which only reads the target files of earlier levels. The
+	 * source directories of all of the merges of a level are scanned first with each directory being walked once however
+	 * many merges use it. Merges that are the only merge writing their target file are then prepared and the ones
+	 * appending some of the same source files are written together so each of those files is read once, merges that
+	 * write to the same target file are processed one after another. The groups of a level are processed concurrently
+	 * when configured to use more than one thread.
+	 * @param groups The groups of merges, each group writes to a different target file
+	 * @throws MojoExecutionException If any of the merges failed
+	 */
+	void processGroups(Collection<List<MergeContext>> groups) throws MojoExecutionException {
+		processLevels(orderByDependencies(groups));
+	}
+
+	/**
+	 * This processes the given levels of merges one after another
+	 * @param levels The levels of groups of merges as ordered by {@link #orderByDependencies(Collection)}
+	 * @throws MojoExecutionException If any of the merges failed
+	 */
+	void processLevels(List<List<List<MergeContext>>> levels) throws MojoExecutionException {
+		if (levels.size() > 1) {
+			getLog().info("Processing the merges in: " + levels.size() + " steps as some of them merge the target files of others.");
+		}
+		for (List<List<MergeContext>> level : levels) {
+			processLevel(level);
+		}
+	}
+
+	/**
+	 * This processes the given groups of merges none of which read the target files of the others
+	 * @param groups The groups of merges, each group writes to a different target file
+	 * @throws MojoExecutionException If any of the merges failed
+	 */
+	private void processLevel(Collection<List<MergeContext>> groups) throws MojoExecutionException {
+		scanSourceDirectories(groups);
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(groups.size());
+		final List<MergeContext> singles = new ArrayList<MergeContext>(groups.size());
+		for (final List<MergeContext> group : groups) {
+			if (group.size() == 1) {
+				final MergeContext context = group.get(0);
+				singles.add(context);
+				tasks.add(new Callable<Void>() {
+
+					public Void call() throws MojoExecutionException {
+						prepareMerge(context, false);
+						return null;
+					}
+				});
+			} else {
+				tasks.add(new Callable<Void>() {
+
+					public Void call() throws MojoExecutionException {
+						processMerges(group);
+						return null;
+					}
+				});
 			}
+		}
+		runTasks(tasks);
 
-			// build ordering names
-			buildOrderings(merge);
+		// now write the prepared merges, the ones sharing source files reading each of them once
+		tasks.clear();
+		for (final List<MergeContext> shared : groupBySharedFiles(singles)) {
+			tasks.add(new Callable<Void>() {
 
-			// scan directories to build the ordered set of files to be written
-			scanDirectories(merge);
+				public Void call() throws MojoExecutionException {
+					if (shared.size() == 1) {
+						writeMerge(shared.get(0));
+					} else {
+						writeShared(shared);
+					}
+					return null;
+				}
+			});
+		}
+		runTasks(tasks);
+	}
 
-			// merge the files into the target directory
-			int numMergedFiles = mergeFiles(merge);
+	/**
+	 * This splits the given groups of merges into levels so that a group reading the target file of another group
+	 * through one of its source directories is in a later level than it. Groups in the same level are independent
+	 * of each other and can be processed concurrently. When groups read each other's target files there is no order
+	 * that gives every one of them up to date input, those groups are then processed one after another in
+	 * configuration order.
+	 * @param groups The groups of merges in configuration order, each group writes to a different target file
+	 * @return The levels of groups in the order they are to be processed, each in configuration order
+	 */
+	List<List<List<MergeContext>>> orderByDependencies(Collection<List<MergeContext>> groups) {
+		List<List<MergeContext>> remaining = new ArrayList<List<MergeContext>>(groups);
+		List<List<List<MergeContext>>> levels = new ArrayList<List<List<MergeContext>>>();
+		while (!remaining.isEmpty()) {
+			// the next level holds the groups that read none of the target files still to be written
+			List<List<MergeContext>> level = new ArrayList<List<MergeContext>>();
+			for (List<MergeContext> group : remaining) {
+				boolean independent = true;
+				for (int i = 0; i < remaining.size() && independent; i++) {
+					List<MergeContext> other = remaining.get(i);
+					independent = other == group || !readsOutputOf(group, other);
+				}
+				if (independent) {
+					level.add(group);
+				}
+			}
+			if (level.isEmpty()) {
+				List<String> targetFiles = new ArrayList<String>(remaining.size());
+				for (List<MergeContext> group : remaining) {
+					targetFiles.add(group.get(0).merge.getTargetFile().getAbsolutePath());
+				}
+				getLog().warn("The target files: " + targetFiles + " are merged from each other, they will be merged one after another in the order they are configured.");
+				for (List<MergeContext> group : remaining) {
+					List<List<MergeContext>> single = new ArrayList<List<MergeContext>>(1);
+					single.add(group);
+					levels.add(single);
+				}
+				break;
+			}
+			levels.add(level);
+			remaining.removeAll(level);
+		}
+		return levels;
+	}
+
+	/**
+	 * This gets whether any of the given reading merges could merge the target file written by any of the given writing merges
+	 * @param readers The merges whose source directories are checked
+	 * @param writers The merges whose target files are checked
+	 * @return True if the target file is in a source directory of a reading merge and matches its patterns, the parts of
+	 * a target file split into parts are never merged by other merges
+	 */
+	private boolean readsOutputOf(List<MergeContext> readers, List<MergeContext> writers) {
+		for (MergeContext writer : writers) {
+			if (writer.merge.getMaxTargetSize() > 0) {
+				continue;
+			}
+			Path targetFile = writer.merge.getTargetFile().getAbsoluteFile().toPath().normalize();
+			for (MergeContext reader : readers) {
+				for (File sourceDir : reader.merge.getSourceDirs()) {
+					Path dir = sourceDir.getAbsoluteFile().toPath().normalize();
+					if (!targetFile.startsWith(dir)) {
+						continue;
+					}
+					FileScanner scanner = new FileScanner(reader.merge.getIncludesCSV(), reader.merge.getExcludesCSV(), getLog());
+					if (scanner.isMatch(dir.relativize(targetFile).toString())) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * This runs the given tasks one after another or on a bounded pool of threads when configured to use more than one thread
+	 * @param tasks The tasks to run
+	 * @throws MojoExecutionException If any of the tasks failed, the first failure in the order of the tasks is thrown
+	 */
+	private void runTasks(List<Callable<Void>> tasks) throws MojoExecutionException {
+		int numThreads = Math.min(this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors(), tasks.size());
+		if (numThreads <= 1) {
+			for (Callable<Void> task : tasks) {
+				try {
+					task.call();
+				} catch (MojoExecutionException mee) {
+					throw mee;
+				} catch (Exception e) {
+					throw new MojoExecutionException("Failed to process merge", e);
+				}
+			}
+			return;
+		}
+
+		getLog().debug("Processing: " + tasks.size() + " target files using: " + numThreads + " threads.");
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+			for (Callable<Void> task : tasks) {
+				futures.add(executor.submit(task));
+			}
+
+			MojoExecutionException failure = null;
+			for (Future<Void> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ee) {
+					MojoExecutionException ex = ee.getCause() instanceof MojoExecutionException ? (MojoExecutionException) ee.getCause()
+							: new MojoExecutionException("Failed to process merge", ee.getCause());
+					if (failure == null) {
+						failure = ex;
+					} else {
+						getLog().error(ex.getMessage(), ex.getCause());
+					}
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new MojoExecutionException("Interrupted while waiting for the merges to finish", ie);
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-			getLog().info("Finished Appending: " + numMergedFiles + " files to the target file: " + merge.getTargetFile().getAbsolutePath() + ".");
+	/**
+	 * This processes the given merges one after another, their source directories must already have been scanned
+	 * @param contexts The contexts of the merges to process
+	 * @throws MojoExecutionException If a merge failed
+	 */
+	private void processMerges(List<MergeContext> contexts) throws MojoExecutionException {
+		for (MergeContext context : contexts) {
+			processMerge(context, false);
+		}
+	}
 
+	/**
+	 * This processes a single merge
+	 * @param context The context of the merge to process
+	 * @param scan Whether the source directories should be scanned, if false the files found by the last scan
+	 * of the context are merged, these are kept up to date by the watch goal
+	 * @throws MojoExecutionException If the merge failed
+	 */
+	void processMerge(MergeContext context, boolean scan) throws MojoExecutionException {
+		if (prepareMerge(context, scan)) {
+			writeMerge(context);
 		}
 	}
 
-	private int mergeFiles(Merge merge) throws MojoExecutionException {
+	/**
+	 * This prepares a single merge building the list of files to append to its target file and its cache key when the merge cache is used
+	 * @param context The context of the merge to prepare
+	 * @param scan Whether the source directories should be scanned, if false the files found by the last scan are used
+	 * @return True if the target file needs to be written, false if it is already up to date
+	 * @throws MojoExecutionException If the merge could not be prepared
+	 */
+	private boolean prepareMerge(MergeContext context, boolean scan) throws MojoExecutionException {
+		Merge merge = context.merge;
+		context.entries = null;
+		context.manifest = null;
+		context.previousManifest = null;
+		context.cacheKey = null;
+		context.cacheHit = false;
 
-		// read the encoding to use
+		try {
+			context.duplicateCheck = DuplicateCheck.forName(merge.getDuplicateCheck());
+		} catch (IllegalArgumentException iae) {
+			throw new MojoExecutionException(iae.getMessage(), iae);
+		}
+		try {
+			context.compression = Compression.forName(merge.getCompression());
+			context.compression.checkAvailable();
+			// create the transforms here so a misconfigured transform fails before anything is written
+			context.transforms = ContentTransforms.create(merge.getTransforms());
+		} catch (RuntimeException re) {
+			throw new MojoExecutionException(re.getMessage(), re);
+		}
+
+		// build ordering names
+		buildOrderings(context);
+
+		// scan directories to build the ordered set of files to be written
+		if (scan) {
+			scanDirectories(context);
+		}
+		addMatchingFiles(context);
+
+		// see if the target file is already up to date with the files found, when the target
+		// is split into parts the parts file is what the manifest records. Cached target files
+		// also record a manifest so their files are only hashed again once one of them changes
+		boolean cached = this.mergeCache != null && merge.getMaxTargetSize() <= 0;
+		if (merge.isIncremental() || cached) {
+			context.manifest = buildManifest(context, getOutputFile(merge));
+			if (merge.isIncremental() && isUpToDate(context, getOutputFile(merge))) {
+				context.manifest = null;
+				return false;
+			}
+		}
+
+		// read the encodings to use, the target encoding defaults to the source one
 		String encoding = DEFAULT_ENCODING;
 		if (merge.getEncoding() != null && merge.getEncoding().length() > 0) {
 			encoding = merge.getEncoding();
 		}
+		String targetEncoding = encoding;
+		if (merge.getTargetEncoding() != null && merge.getTargetEncoding().length() > 0) {
+			targetEncoding = merge.getTargetEncoding();
+		}
+		context.sourceCharset = getCharset(encoding);
+		context.targetCharset = getCharset(targetEncoding);
+
+		// only decode and re-encode the files when we actually need to transcode or transform them
+		if (!context.transforms.isEmpty()) {
+			getLog().debug("Files will be decoded from: " + context.sourceCharset.name() + " and passed through: " + context.transforms.size()
+					+ " transforms before being encoded as: " + context.targetCharset.name() + ".");
+		} else if (context.sourceCharset.equals(context.targetCharset) && !Transcoder.writesByteOrderMark(context.targetCharset)) {
+			getLog().debug("Source and target encodings are both: " + context.targetCharset.name() + ", files will be appended as raw bytes.");
+		} else {
+			getLog().debug("Files will be transcoded from: " + context.sourceCharset.name() + " to: " + context.targetCharset.name() + ".");
+		}
+
+		// build the list of files to append in the order required
+		List<MergeEntry> entries = buildEntries(context);
+
+		if (merge.isWriteIndex() && context.compression != Compression.NONE) {
+			getLog().warn("A byte range index can only be written for uncompressed target files, no index will be written for the target file: "
+					+ merge.getTargetFile().getAbsolutePath());
+		}
+
+		// key the target file by what it is merged from so it can be restored from the cache
+		if (cached) {
+			context.cacheKey = context.manifest.getUnchangedCacheKey(context.previousManifest);
+			if (context.cacheKey == null) {
+				try {
+					context.cacheKey = this.mergeCache.getKey(context, entries, createIndex(context) != null);
+				} catch (IOException ioe) {
+					getLog().warn("Failed to hash the files of the target file: " + merge.getTargetFile().getAbsolutePath() + ", it will not be cached", ioe);
+				}
+			} else {
+				getLog().debug("None of the files of the target file: " + merge.getTargetFile().getAbsolutePath() + " changed, reusing its cache key.");
+			}
+			context.manifest.setCacheKey(context.cacheKey);
+			context.cacheHit = context.cacheKey != null && this.mergeCache.contains(context.cacheKey);
+		}
+		context.entries = entries;
+		return true;
+	}
+
+	/**
+	 * This writes the target file of a prepared merge
+	 * @param context The context of the prepared merge
+	 * @throws MojoExecutionException If the target file could not be written
+	 */
+	private void writeMerge(MergeContext context) throws MojoExecutionException {
+		deleteOutput(context.merge);
+		if (!restoreFromCache(context)) {
+			startProgress(context);
+			if (context.merge.getMaxTargetSize() > 0) {
+				writeParts(context, context.entries);
+			} else {
+				writeTarget(context, context.merge.getTargetFile(), context.entries);
+			}
+			storeInCache(context);
+		}
+		finishMerge(context);
+	}
+
+	/**
+	 * This restores the target file of the given prepared merge from the merge cache
+	 * @param context The context of the prepared merge
+	 * @return True if the target file was restored, false if it needs to be merged
+	 */
+	private boolean restoreFromCache(MergeContext context) {
+		if (context.cacheKey == null || !context.cacheHit) {
+			return false;
+		}
+		File targetFile = context.merge.getTargetFile();
+		try {
+			if (this.mergeCache.restore(context.cacheKey, targetFile, createIndex(context) != null)) {
+				getLog().info("Restored the target file: " + targetFile.getAbsolutePath() + " from the merge cache.");
+				return true;
+			}
+		} catch (IOException ioe) {
+			getLog().warn("Failed to restore the target file: " + targetFile.getAbsolutePath() + " from the merge cache, it will be merged", ioe);
+		}
+		return false;
+	}
+
+	/**
+	 * This stores the merged target file of the given merge in the merge cache
+	 * @param context The context of the merge
+	 */
+	private void storeInCache(MergeContext context) {
+		if (context.cacheKey == null) {
+			return;
+		}
+		this.mergeCache.miss();
+		File targetFile = context.merge.getTargetFile();
+		try {
+			this.mergeCache.store(context.cacheKey, targetFile, createIndex(context) != null);
+		} catch (IOException ioe) {
+			getLog().warn("Failed to store the target file: " + targetFile.getAbsolutePath() + " in the merge cache", ioe);
+		}
+	}
+
+	/**
+	 * This writes the target files of the given prepared merges which append some of the same source files reading
+	 * each source file once. The merges are split into batches whose files can be read in a single order that keeps
+	 * the order of every merge in the batch, a merge that can not join any batch is written on its own.
+	 * @param contexts The contexts of the prepared merges
+	 * @throws MojoExecutionException If a target file could not be written
+	 */
+	private void writeShared(List<MergeContext> contexts) throws MojoExecutionException {
+		List<List<MergeContext>> batches = new ArrayList<List<MergeContext>>();
+		List<List<File>> orders = new ArrayList<List<File>>();
+		for (MergeContext context : contexts) {
+			boolean added = false;
+			for (int i = 0; i < batches.size() && !added; i++) {
+				List<List<MergeEntry>> entryLists = new ArrayList<List<MergeEntry>>(batches.get(i).size() + 1);
+				for (MergeContext batchContext : batches.get(i)) {
+					entryLists.add(batchContext.entries);
+				}
+				entryLists.add(context.entries);
+				List<File> order = SharedSourceWriter.order(entryLists);
+				if (order != null) {
+					batches.get(i).add(context);
+					orders.set(i, order);
+					added = true;
+				}
+			}
+			if (!added) {
+				List<MergeContext> batch = new ArrayList<MergeContext>();
+				batch.add(context);
+				batches.add(batch);
+				orders.add(null);
+			}
+		}
+
+		for (int i = 0; i < batches.size(); i++) {
+			List<MergeContext> batch = batches.get(i);
+			if (batch.size() == 1) {
+				getLog().debug("The target file: " + batch.get(0).merge.getTargetFile().getAbsolutePath()
+						+ " appends its shared source files in a different order to the other target files, it will read them on its own.");
+				writeMerge(batch.get(0));
+			} else {
+				writeBatch(batch, orders.get(i));
+			}
+		}
+	}
+
+	/**
+	 * This writes the target files of the given prepared merges reading each of their source files once
+	 * @param contexts The contexts of the prepared merges
+	 * @param order The source files in the order to read them
+	 * @throws MojoExecutionException If a target file could not be written
+	 */
+	private void writeBatch(List<MergeContext> contexts, List<File> order) throws MojoExecutionException {
+		List<List<MergeEntry>> entryLists = new ArrayList<List<MergeEntry>>(contexts.size());
+		int numEntries = 0;
+		for (MergeContext context : contexts) {
+			entryLists.add(context.entries);
+			numEntries += context.entries.size();
+		}
+		getLog().info("Reading: " + order.size() + " files once to append: " + numEntries + " files to: " + contexts.size() + " target files.");
+
+		List<MergeIndex> indexes = new ArrayList<MergeIndex>(contexts.size());
+		List<MergeWriter> writers = new ArrayList<MergeWriter>(contexts.size());
+		try {
+			for (MergeContext context : contexts) {
+				deleteOutput(context.merge);
+				startProgress(context);
+				MergeIndex index = createIndex(context);
+				indexes.add(index);
+				writers.add(openWriter(context, context.merge.getTargetFile(), index));
+			}
+			SharedSourceWriter.write(order, entryLists, writers);
+			for (int i = 0; i < writers.size(); i++) {
+				writers.get(i).close();
+				writers.set(i, null);
+			}
+		} catch (IOException ioe) {
+			List<String> targetFiles = new ArrayList<String>(contexts.size());
+			for (MergeContext context : contexts) {
+				targetFiles.add(context.merge.getTargetFile().getAbsolutePath());
+			}
+			throw new MojoExecutionException("Failed to write the target files: " + targetFiles, ioe);
+		} finally {
+			for (MergeWriter writer : writers) {
+				if (writer != null) {
+					writer.closeQuietly();
+				}
+			}
+		}
+
+		for (int i = 0; i < contexts.size(); i++) {
+			writeIndex(indexes.get(i), contexts.get(i).merge.getTargetFile());
+			storeInCache(contexts.get(i));
+			finishMerge(contexts.get(i));
+		}
+	}
+
+	/**
+	 * This groups the given prepared merges by the source files they append, merges that append a file in common end up
+	 * in the same group so the file is read once for all of them. Merges that are up to date, restored from the cache,
+	 * split into parts or append the same file more than once are always in a group of their own.
+	 * @param contexts The contexts of the merges in configuration order
+	 * @return The groups of merges that need to be written in configuration order
+	 */
+	private static List<List<MergeContext>> groupBySharedFiles(List<MergeContext> contexts) {
+		int[] parents = new int[contexts.size()];
+		Map<File, Integer> firstMerges = new HashMap<File, Integer>();
+		for (int i = 0; i < contexts.size(); i++) {
+			parents[i] = i;
+			MergeContext context = contexts.get(i);
+			if (!canShareReads(context)) {
+				continue;
+			}
+			for (MergeEntry entry : context.entries) {
+				Integer first = firstMerges.get(entry.file);
+				if (first == null) {
+					firstMerges.put(entry.file, i);
+				} else {
+					// join the groups keeping the earliest merge as the root
+					int root = findRoot(parents, first.intValue());
+					int ownRoot = findRoot(parents, i);
+					parents[Math.max(root, ownRoot)] = Math.min(root, ownRoot);
+				}
+			}
+		}
+
+		Map<Integer, List<MergeContext>> groups = new LinkedHashMap<Integer, List<MergeContext>>();
+		for (int i = 0; i < contexts.size(); i++) {
+			if (contexts.get(i).entries == null) {
+				continue;
+			}
+			Integer root = findRoot(parents, i);
+			List<MergeContext> group = groups.get(root);
+			if (group == null) {
+				group = new ArrayList<MergeContext>(1);
+				groups.put(root, group);
+			}
+			group.add(contexts.get(i));
+		}
+		return new ArrayList<List<MergeContext>>(groups.values());
+	}
+
+	private static int findRoot(int[] parents, int i) {
+		while (parents[i] != i) {
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/**
+	 * This gets whether the given prepared merge can read its source files together with other merges
+	 * @param context The merge context
+	 * @return True if the target file is written as a single stream appending each file once
+	 */
+	private static boolean canShareReads(MergeContext context) {
+		if (context.entries == null || context.cacheHit || context.merge.getMaxTargetSize() > 0) {
+			return false;
+		}
+		Set<File> files = new HashSet<File>(context.entries.size() * 2);
+		for (MergeEntry entry : context.entries) {
+			if (!files.add(entry.file)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This removes the target file of the given merge along with everything written next to it by the last merge
+	 * @param merge The merge config
+	 * @throws MojoExecutionException If the parts file of the target file could not be read
+	 */
+	private static void deleteOutput(Merge merge) throws MojoExecutionException {
+		if (merge.getTargetFile().exists()) {
+			merge.getTargetFile().delete();
+		}
+		MergeManifest.getManifestFile(merge.getTargetFile()).delete();
+		MergeIndex.getIndexFile(merge.getTargetFile()).delete();
+		// and any parts it was previously split into
+		try {
+			MergeParts.delete(merge.getTargetFile());
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to read the parts file of the target file: " + merge.getTargetFile().getAbsolutePath(), ioe);
+		}
+	}
+
+	/**
+	 * This starts reporting the progress of writing the target file of the given prepared merge
+	 * @param context The context of the prepared merge
+	 */
+	private void startProgress(MergeContext context) {
+		long totalBytes = 0;
+		for (MergeEntry entry : context.entries) {
+			totalBytes += entry.size;
+		}
+		context.progress = new ProgressReporter(getLog(), "target file: " + context.merge.getTargetFile().getAbsolutePath(), context.entries.size(),
+				totalBytes, this.progressInterval);
+	}
+
+	/**
+	 * This logs the end of a merge whose target file was written and records its manifest
+	 * @param context The merge context
+	 */
+	private void finishMerge(MergeContext context) {
+		Merge merge = context.merge;
+		if (context.progress != null) {
+			context.progress.finish();
+			context.progress = null;
+		} else {
+			getLog().info("Finished Appending: " + context.entries.size() + " files to the target file: " + merge.getTargetFile().getAbsolutePath() + ".");
+		}
+
+		if (context.manifest != null) {
+			try {
+				context.manifest.write(getOutputFile(merge));
+			} catch (IOException ioe) {
+				getLog().warn("Failed to write the merge manifest for the target file: " + merge.getTargetFile().getAbsolutePath()
+						+ ", it will be merged again on the next build", ioe);
+			}
+		}
+		context.entries = null;
+		context.manifest = null;
+		context.previousManifest = null;
+	}
+
+	/**
+	 * This gets the file that records the output of the given merge, the target file itself or the parts file
+	 * when the target file is split into parts
+	 * @param merge The merge config
+	 * @return The output file
+	 */
+	private static File getOutputFile(Merge merge) {
+		return merge.getMaxTargetSize() > 0 ? MergeParts.getPartsFile(merge.getTargetFile()) : merge.getTargetFile();
+	}
+
+	/**
+	 * This builds the manifest of the given merge and reads the one recorded when the target file was last merged
+	 * into the context unless a forced merge was requested
+	 * @param context The merge context
+	 * @param targetFile The file recording the output of the merge
+	 * @return The manifest to record once the target file is merged
+	 * @throws MojoExecutionException If the manifest could not be built
+	 */
+	private MergeManifest buildManifest(MergeContext context, File targetFile) throws MojoExecutionException {
+		MergeManifest manifest;
+		try {
+			manifest = MergeManifest.build(context.merge, context.getOrderedFiles());
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to build the merge manifest for the target file: " + targetFile.getAbsolutePath(), ioe);
+		}
+		if (!this.force) {
+			try {
+				context.previousManifest = MergeManifest.read(targetFile);
+			} catch (IOException ioe) {
+				getLog().warn("Failed to read the merge manifest for the target file: " + targetFile.getAbsolutePath(), ioe);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * This compares the manifest of the given merge with the one recorded when the target file was last merged
+	 * @param context The merge context holding both manifests
+	 * @param targetFile The file recording the output of the merge
+	 * @return True if the target file is up to date
+	 */
+	private boolean isUpToDate(MergeContext context, File targetFile) {
+		String reason;
+		if (this.force) {
+			reason = "a forced merge was requested";
+		} else {
+			reason = context.manifest.getChangeReason(context.previousManifest, targetFile);
+			if (reason == null) {
+				reason = getMissingOutputReason(context.merge, context.compression);
+			}
+		}
+
+		if (reason == null) {
+			getLog().info("The target file: " + targetFile.getAbsolutePath() + " is up to date as none of the files to merge or the merge configuration "
+					+ "changed, skipping it.");
+			return true;
+		}
+		getLog().info("Merging the target file: " + targetFile.getAbsolutePath() + " as " + reason + ".");
+		return false;
+	}
+
+	/**
+	 * This checks that the part files and byte range indexes written by the last merge still exist
+	 * @param merge The merge config
+	 * @param compression The compression of the target file
+	 * @return The reason the target file needs to be merged again or null if nothing is missing
+	 */
+	private String getMissingOutputReason(Merge merge, Compression compression) {
+		List<File> files = new ArrayList<File>();
+		if (merge.getMaxTargetSize() > 0) {
+			try {
+				files.addAll(MergeParts.read(merge.getTargetFile()));
+			} catch (IOException ioe) {
+				return "its parts file could not be read";
+			}
+		} else {
+			files.add(merge.getTargetFile());
+		}
+		for (File file : files) {
+			if (!file.exists()) {
+				return "the part file: " + file.getAbsolutePath() + " does not exist";
+			}
+			if (merge.isWriteIndex() && compression == Compression.NONE && !MergeIndex.getIndexFile(file).exists()) {
+				return "the byte range index of: " + file.getAbsolutePath() + " does not exist";
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * This splits the given entries into parts no bigger than the max target size of the merge and writes
+	 * each part to its own part file followed by the parts file listing them. As the parts are independent
+	 * they are written concurrently on the io fork join pool.
+	 * @param context The merge context
+	 * @param entries The entries to append in order
+	 * @throws MojoExecutionException If a part could not be written
+	 */
+	private void writeParts(final MergeContext context, List<MergeEntry> entries) throws MojoExecutionException {
+		final File targetFile = context.merge.getTargetFile();
+		List<List<MergeEntry>> parts = MergeParts.split(entries, context.merge.getMaxTargetSize(), compileSeparator(context.merge),
+				context.targetCharset);
+		getLog().info("Writing the target file: " + targetFile.getAbsolutePath() + " as: " + parts.size() + " parts of at most: "
+				+ context.merge.getMaxTargetSize() + " bytes.");
+
+		List<File> partFiles = new ArrayList<File>(parts.size());
+		List<Integer> numFiles = new ArrayList<Integer>(parts.size());
+		for (int i = 0; i < parts.size(); i++) {
+			partFiles.add(MergeParts.getPartFile(targetFile, i + 1));
+			numFiles.add(parts.get(i).size());
+		}
+
+		if (parts.size() <= 1 || this.ioPool.getParallelism() <= 1) {
+			for (int i = 0; i < parts.size(); i++) {
+				writeTarget(context, partFiles.get(i), parts.get(i));
+			}
+		} else {
+			List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>(parts.size());
+			for (int i = 0; i < parts.size(); i++) {
+				final File partFile = partFiles.get(i);
+				final List<MergeEntry> part = parts.get(i);
+				tasks.add(this.ioPool.submit(new Callable<Void>() {
+
+					public Void call() throws MojoExecutionException {
+						writeTarget(context, partFile, part);
+						return null;
+					}
+				}));
+			}
+			MojoExecutionException failure = null;
+			for (int i = 0; i < tasks.size(); i++) {
+				try {
+					tasks.get(i).get();
+				} catch (ExecutionException ee) {
+					MojoExecutionException ex = ee.getCause() instanceof MojoExecutionException ? (MojoExecutionException) ee.getCause()
+							: new MojoExecutionException("Failed to write the part file: " + partFiles.get(i).getAbsolutePath(), ee.getCause());
+					if (failure == null) {
+						failure = ex;
+					} else {
+						getLog().error(ex.getMessage(), ex.getCause());
+					}
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new MojoExecutionException("Interrupted while writing the parts of the target file: " + targetFile.getAbsolutePath(), ie);
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+
+		try {
+			MergeParts.write(targetFile, partFiles, numFiles);
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to write the parts file of the target file: " + targetFile.getAbsolutePath(), ioe);
+		}
+	}
+
+	/**
+	 * This writes the given entries to the given file along with its byte range index if one was requested
+	 * @param context The merge context
+	 * @param targetFile The file to write, either the target file of the merge or one of its parts
+	 * @param entries The entries to append in order
+	 * @throws MojoExecutionException If the file could not be written
+	 */
+	private void writeTarget(MergeContext context, File targetFile, List<MergeEntry> entries) throws MojoExecutionException {
+		MergeIndex index = createIndex(context);
 
-		int numMergedFiles = 0;
 		// now append the files that have been found in the order required
-		Writer ostream = null;
-		FileOutputStream fos = null;
+		MergeWriter output = null;
+		try {
+			output = openWriter(context, targetFile, index);
+			for (MergeEntry entry : entries) {
+				try {
+					output.append(entry);
+				} catch (IOException ioe) {
+					throw new MojoExecutionException("Failed to append file: " + entry.file.getName() + " to output file", ioe);
+				}
+			}
+			output.close();
+			output = null;
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to open stream file to output file: " + targetFile.getAbsolutePath(), ioe);
+		} finally {
+			if (output != null) {
+				output.closeQuietly();
+			}
+		}
+		writeIndex(index, targetFile);
+	}
+
+	/**
+	 * This creates the byte range index to record the appended files of the given merge in if one was requested
+	 * @param context The merge context
+	 * @return The index or null if no index is to be written
+	 */
+	private static MergeIndex createIndex(MergeContext context) {
+		return context.merge.isWriteIndex() && context.compression == Compression.NONE ? new MergeIndex() : null;
+	}
+
+	/**
+	 * This opens a writer appending to the given file for the given merge
+	 * @param context The merge context
+	 * @param targetFile The file to write, either the target file of the merge or one of its parts
+	 * @param index The index to record the appended files in, may be null
+	 * @return The writer
+	 * @throws IOException If the file could not be opened
+	 */
+	private static MergeWriter openWriter(MergeContext context, File targetFile, MergeIndex index) throws IOException {
+		// parse the separator once rather than replacing its variables for every file,
+		// templates are not thread safe so each file being written gets its own
+		SeparatorTemplate separator = compileSeparator(context.merge);
+		// transforms keep state between the chunks of a file so each target file gets its own instances
+		List<ContentTransform> transforms = ContentTransforms.create(context.merge.getTransforms());
+		MergeWriter writer = new MergeWriter(targetFile, context.sourceCharset, context.targetCharset, context.compression, separator, transforms,
+				context.merge.isDetectEncoding(), context.merge.isDecompressSources());
+		if (index != null) {
+			writer.setIndex(index);
+		}
+		writer.setProgress(context.progress);
+		return writer;
+	}
+
+	/**
+	 * This writes the byte range index of the given target file
+	 * @param index The index to write, may be null if no index is to be written
+	 * @param targetFile The target file the index is for
+	 * @throws MojoExecutionException If the index could not be written
+	 */
+	private void writeIndex(MergeIndex index, File targetFile) throws MojoExecutionException {
+		if (index == null) {
+			return;
+		}
 		try {
-			fos = new FileOutputStream(merge.getTargetFile(), true);
-			ostream = new OutputStreamWriter(fos, encoding);
-			BufferedWriter output = new BufferedWriter(ostream);
-			for (String orderingName : this.orderingNames) {
-				List<File> files = this.orderedFiles.get(orderingName);
-				if (files != null) {
-					getLog().info(
-							"Appending: " + files.size() + " files that matched the name: " + orderingName + " to the target file: "
-									+ merge.getTargetFile().getAbsolutePath() + "...");
-					for (File file : files) {
-						String fileName = file.getName();
-						getLog().info("Appending file: " + fileName + " to the target file: " + merge.getTargetFile().getAbsolutePath() + "...");
-						InputStream input = null;
+			index.write(targetFile);
+		} catch (IOException ioe) {
+			throw new MojoExecutionException("Failed to write the byte range index of the target file: " + targetFile.getAbsolutePath(), ioe);
+		}
+		getLog().debug("Wrote the byte range index of: " + index.size() + " files for the target file: " + targetFile.getAbsolutePath());
+	}
+
+	/**
+	 * This builds the list of files to append to the target file in the order they are to be appended,
+	 * skipping any files whose content was already appended when configured to do so
+	 * @param context The merge context
+	 * @return The entries to append
+	 * @throws MojoExecutionException If the content of a file could not be compared
+	 */
+	private List<MergeEntry> buildEntries(MergeContext context) throws MojoExecutionException {
+		Merge merge = context.merge;
+		ContentDeduplicator deduplicator = merge.isDedupByContent() ? new ContentDeduplicator() : null;
+
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		for (String orderingName : context.orderingNames) {
+			List<File> files = context.orderedFiles.get(orderingName);
+			// files that matched no ordering have no ordering name in the separator
+			String entryOrderingName = DEFAULT_ORDERING_NAME.equals(orderingName) ? null : orderingName;
+			if (files != null) {
+				getLog().info(
+						"Appending: " + files.size() + " files that matched the name: " + orderingName + " to the target file: "
+								+ merge.getTargetFile().getAbsolutePath() + "...");
+				for (File file : files) {
+					if (deduplicator != null) {
+						File original;
 						try {
-							input = new FileInputStream(file);
-
-							// add separator if present
-							if (merge.getSeparator() != null && merge.getSeparator().trim().length() > 0) {
-								String replaced = merge.getSeparator().trim();
-								// remove any line breaks and tabs due to xml formatting
-								replaced = replaced.replace("\n", "");
-								replaced = replaced.replace("\t", "");
-								// replace the file name and parent name variables
-								replaced = replaced.replace("#{file.name}", fileName);
-								replaced = replaced.replace("#{parent.name}", file.getParentFile() != null ? file.getParentFile().getName() : "");
-								// add in any requested line breaks and tabs
-								replaced = replaced.replace("\\n", "\n");
-								replaced = replaced.replace("\\t", "\t");
-								getLog().debug("Appending separator: " + replaced);
-								IOUtils.copy(new StringReader(replaced), output);
-							}
-							// add file contents
-							IOUtils.copy(input, output, encoding);
+							original = deduplicator.addIfNew(file);
 						} catch (IOException ioe) {
-							throw new MojoExecutionException("Failed to append file: " + fileName + " to output file", ioe);
-						} finally {
-							IOUtils.closeQuietly(input);
+							throw new MojoExecutionException("Failed to compare the content of the file: " + file.getAbsolutePath(), ioe);
+						}
+						if (original != null) {
+							if (getLog().isDebugEnabled()) {
+								getLog().debug("Skipping file: " + file.getAbsolutePath() + " as its content was already appended from: " + original.getAbsolutePath());
+							}
+							continue;
 						}
-						numMergedFiles++;
 					}
+					entries.add(new MergeEntry(file, entryOrderingName, context.sourceDirs.get(file)));
 				}
 			}
-			output.flush();
-		} catch (IOException ioe) {
-			throw new MojoExecutionException("Failed to open stream file to output file: " + merge.getTargetFile().getAbsolutePath(), ioe);
-		} finally {
-			if (fos != null) {
-				IOUtils.closeQuietly(fos);
+		}
+		if (deduplicator != null) {
+			getLog().info("Skipped: " + deduplicator.getNumDuplicates() + " files whose content was already appended to the target file: "
+					+ merge.getTargetFile().getAbsolutePath() + ", saving: " + deduplicator.getBytesSaved() + " bytes.");
+		}
+		return entries;
+	}
+
+	/**
+	 * This gets the charset for the given encoding
+	 * @param encoding The encoding name
+	 * @return The charset
+	 * @throws MojoExecutionException If the encoding is not supported
+	 */
+	private Charset getCharset(String encoding) throws MojoExecutionException {
+		try {
+			return Charset.forName(encoding);
+		} catch (IllegalArgumentException iae) {
+			throw new MojoExecutionException("The encoding: " + encoding + " is not supported", iae);
+		}
+	}
+
+	/**
+	 * This scans the source directories of all of the given merges, each distinct directory is walked once for all of
+	 * the merges using it and the directories are walked concurrently on the io fork join pool
+	 * @param groups The groups of merges to scan the source directories of
+	 * @throws MojoExecutionException If a directory could not be scanned
+	 */
+	private void scanSourceDirectories(Collection<List<MergeContext>> groups) throws MojoExecutionException {
+		// find the merges using each directory, a merge listing a directory twice is in its list twice
+		Map<File, List<MergeContext>> dirMerges = new LinkedHashMap<File, List<MergeContext>>();
+		for (List<MergeContext> group : groups) {
+			for (MergeContext context : group) {
+				resolveScanDirectories(context);
+				context.matchingFiles = new ArrayList<List<File>>(context.scanDirs.size());
+				for (File scanDir : context.scanDirs) {
+					context.matchingFiles.add(null);
+					List<MergeContext> merges = dirMerges.get(scanDir.getAbsoluteFile());
+					if (merges == null) {
+						merges = new ArrayList<MergeContext>(1);
+						dirMerges.put(scanDir.getAbsoluteFile(), merges);
+					}
+					merges.add(context);
+				}
+			}
+		}
+
+		List<File> dirs = new ArrayList<File>(dirMerges.keySet());
+		List<ForkJoinTask<List<List<File>>>> tasks = new ArrayList<ForkJoinTask<List<List<File>>>>(dirs.size());
+		for (final File dir : dirs) {
+			List<MergeContext> merges = dirMerges.get(dir);
+			getLog().info("Scanning sourced directory: " + dir.getAbsolutePath() + " for files to merge...");
+			if (merges.size() > 1) {
+				getLog().debug("The sourced directory: " + dir.getAbsolutePath() + " is scanned once for: " + merges.size() + " merges.");
 			}
-			if (ostream != null) {
-				IOUtils.closeQuietly(ostream);
+			final List<FileScanner> scanners = new ArrayList<FileScanner>(merges.size());
+			for (MergeContext context : merges) {
+				scanners.add(context.scanner);
+			}
+			tasks.add(this.ioPool.submit(new Callable<List<List<File>>>() {
+
+				public List<List<File>> call() throws IOException {
+					return FileScanner.scan(dir, scanners);
+				}
+			}));
+		}
+
+		for (int i = 0; i < tasks.size(); i++) {
+			File dir = dirs.get(i);
+			List<List<File>> matches;
+			try {
+				matches = tasks.get(i).get();
+			} catch (ExecutionException ee) {
+				throw new MojoExecutionException("Failed to find matching files of the source dir: " + dir.getAbsolutePath(), ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted while scanning the source dir: " + dir.getAbsolutePath(), ie);
+			}
+			// hand the matches back to the merges in the order their directories are configured
+			List<MergeContext> merges = dirMerges.get(dir);
+			for (int m = 0; m < merges.size(); m++) {
+				MergeContext context = merges.get(m);
+				for (int d = 0; d < context.scanDirs.size(); d++) {
+					if (context.matchingFiles.get(d) == null && context.scanDirs.get(d).getAbsoluteFile().equals(dir)) {
+						context.matchingFiles.set(d, matches.get(m));
+						break;
+					}
+				}
 			}
 		}
-		return numMergedFiles;
 	}
 
 	/**
-	 * This scans the configured source directories and builds uo the map of ordered
-	 * files
-	 * @param merge
+	 * This scans the configured source directories for the files matching the merge
+	 * @param context The merge context
+	 */
+	private void scanDirectories(MergeContext context) throws MojoExecutionException {
+		resolveScanDirectories(context);
+		context.matchingFiles = findMatchingFiles(context.scanDirs, context.scanner);
+	}
+
+	/**
+	 * This finds the configured source directories of the merge that can be scanned and compiles its patterns
+	 * @param context The merge context
 	 */
-	private void scanDirectories(Merge merge) throws MojoExecutionException {
-		this.orderedFiles = new HashMap<String, List<File>>(this.orderingNames.size());
-		this.addedFiles = new HashSet<String>();
+	private void resolveScanDirectories(MergeContext context) {
+		Merge merge = context.merge;
 
-		// find all the files that are in the source directories and add to the appropriate list based on the file name
+		// find all the files that are in the source directories
 		File[] sourceDirs = merge.getSourceDirs();
+		List<File> scanDirs = new ArrayList<File>(sourceDirs.length);
 		for (File sourceDir : sourceDirs) {
 			if (!sourceDir.exists()) {
 				getLog().warn("The source directory: " + sourceDir.getAbsolutePath() + " did not exist, it wil not be included in the scanned directories");
@@ -198,51 +1204,167 @@ public class MergeMojo extends AbstractMojo {
 			} else if (!sourceDir.isDirectory()) {
 				getLog().warn("The source directory: " + sourceDir.getAbsolutePath() + " is not a directory, it wil not be included in the scanned directories");
 			} else {
-				processSourceDirectory(sourceDir, merge);
+				scanDirs.add(sourceDir);
 			}
 		}
+
+		// compile the patterns once for all of the directories
+		context.scanner = new FileScanner(merge.getIncludesCSV(), merge.getExcludesCSV(), getLog());
+		context.scanDirs = scanDirs;
+	}
+
+	/**
+	 * This adds the files found by the last scan to the map of ordered files
+	 * @param context The merge context
+	 */
+	private void addMatchingFiles(MergeContext context) throws MojoExecutionException {
+		context.startScan();
+
+		// the directories are walked concurrently but the matches are added in the configured directory order
+		// so the ordered files are exactly the same as a serial scan would produce
+		for (int i = 0; i < context.scanDirs.size(); i++) {
+			processSourceDirectory(context.scanDirs.get(i), context.matchingFiles.get(i), context);
+		}
+	}
+
+	/**
+	 * This finds the files matching the includes and excludes of the merge in each of the given directories,
+	 * when there is more than one directory they are scanned concurrently on the io fork join pool
+	 * @param scanDirs The directories to scan
+	 * @param scanner The scanner holding the patterns of the merge
+	 * @return The matching files of each directory in the same order as the given directories
+	 * @throws MojoExecutionException If a directory could not be scanned
+	 */
+	private List<List<File>> findMatchingFiles(List<File> scanDirs, final FileScanner scanner) throws MojoExecutionException {
+		List<List<File>> matches = new ArrayList<List<File>>(scanDirs.size());
+		if (scanDirs.size() <= 1 || this.ioPool.getParallelism() <= 1) {
+			for (File sourceDir : scanDirs) {
+				getLog().info("Scanning sourced directory: " + sourceDir.getAbsolutePath() + " for files to merge...");
+				try {
+					matches.add(getFiles(scanner, sourceDir));
+				} catch (IOException ioe) {
+					throw new MojoExecutionException("Failed to find matching files of the source dir: " + sourceDir.getAbsolutePath(), ioe);
+				}
+			}
+			return matches;
+		}
+
+		List<ForkJoinTask<List<File>>> tasks = new ArrayList<ForkJoinTask<List<File>>>(scanDirs.size());
+		for (final File sourceDir : scanDirs) {
+			getLog().info("Scanning sourced directory: " + sourceDir.getAbsolutePath() + " for files to merge...");
+			tasks.add(this.ioPool.submit(new Callable<List<File>>() {
+
+				public List<File> call() throws IOException {
+					return getFiles(scanner, sourceDir);
+				}
+			}));
+		}
+		for (int i = 0; i < tasks.size(); i++) {
+			try {
+				matches.add(tasks.get(i).get());
+			} catch (ExecutionException ee) {
+				throw new MojoExecutionException("Failed to find matching files of the source dir: " + scanDirs.get(i).getAbsolutePath(), ee.getCause());
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new MojoExecutionException("Interrupted while scanning the source dir: " + scanDirs.get(i).getAbsolutePath(), ie);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * This parses the separator of the given merge, besides the variables of the file it supports #{ordering.name}
+	 * for the name of the ordering the file matched
+	 * @param merge The merge
+	 * @return The template or null if the merge has no separator
+	 */
+	static SeparatorTemplate compileSeparator(Merge merge) {
+		return SeparatorTemplate.compile(merge.getSeparator(), ORDERING_NAME_VARIABLE);
+	}
+
+	/**
+	 * This finds the files matching the given scanner in the given directory in the order they are walked
+	 * @param scanner The scanner holding the patterns of the merge
+	 * @param sourceDir The directory to scan
+	 * @return The matching files
+	 * @throws IOException If the directory could not be scanned
+	 */
+	static List<File> getFiles(FileScanner scanner, File sourceDir) throws IOException {
+		final List<File> files = new ArrayList<File>();
+		scanner.scan(sourceDir, new FileScanner.Callback() {
+
+			public void found(File file) {
+				files.add(file);
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * This gets the number of threads to use for scanning source directories
+	 * @return The number of scan threads, the number of available processors if not configured
+	 */
+	private int getScanThreads() {
+		return this.scanThreads > 0 ? this.scanThreads : Runtime.getRuntime().availableProcessors();
 	}
 
 	/**
 	 * This builds up the list of ordering names to use
-	 * @param merge the merge config to build the orderings for
+	 * @param context the context of the merge to build the orderings for
 	 */
-	private void buildOrderings(Merge merge) {
-		this.orderingNames = new ArrayList<String>();
+	private void buildOrderings(MergeContext context) {
+		Merge merge = context.merge;
+		List<String> orderingNames = new ArrayList<String>();
 		if (merge.getNameContainsOrderings() != null && merge.getNameContainsOrderings().length > 0) {
 			for (String ordering : merge.getNameContainsOrderings()) {
 				if (ordering != null && ordering.trim().length() > 0) {
 					getLog().debug("Adding ordering name: " + ordering.trim());
-					this.orderingNames.add(ordering.trim());
+					orderingNames.add(ordering.trim());
 				} else {
 					getLog().warn("The ordering name: " + ordering + " is empty it will be ignored.");
 				}
 			}
-			this.orderingNames.add(DEFAULT_ORDERING_NAME);
+			orderingNames.add(DEFAULT_ORDERING_NAME);
 		}
 
-		this.useOrdering = true;
-		if (this.orderingNames.isEmpty()) {
-			this.orderingNames = DEFAULT_ORDERING;
-			this.useOrdering = false;
+		context.orderingNames = orderingNames;
+		context.useOrdering = true;
+		if (orderingNames.isEmpty()) {
+			context.orderingNames = DEFAULT_ORDERING;
+			context.useOrdering = false;
+		}
+		if (context.useOrdering) {
+			// build the matcher once rather than for each file, long lists of names are compiled into an automaton
+			context.orderingMatcher = new OrderingMatcher(orderingNames);
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private void processSourceDirectory(File sourceDir, Merge merge) throws MojoExecutionException {
-		getLog().info("Scanning sourced directory: " + sourceDir.getAbsolutePath() + " for files to merge...");
-
-		String including = merge.getIncludesCSV();
-		String excluding = merge.getExcludesCSV();
-
-		// first find matching files
-		List<File> matchingFiles;
-		try {
-			matchingFiles = FileUtils.getFiles(sourceDir, including, excluding);
-		} catch (IOException ioe) {
-			throw new MojoExecutionException("Failed to find matching files of the source dir: " + sourceDir.getAbsolutePath(), ioe);
+	/**
+	 * This gets whether the given file is written by the merges and must not be merged by the given merge. The target
+	 * files of other merges are merged like any other file so merges can be chained, but the manifests, indexes, parts
+	 * files and part files kept next to the target file of any configured merge never are.
+	 * @param merge The merge config
+	 * @param file The file to check
+	 * @return True if the file is the target file of the merge or one of the files kept next to the target file of a merge
+	 */
+	boolean isMergeOutput(Merge merge, File file) {
+		File absoluteFile = file.getAbsoluteFile();
+		String name = absoluteFile.getName();
+		if (name.endsWith(MergeManifest.MANIFEST_SUFFIX) || name.endsWith(MergeIndex.INDEX_SUFFIX)
+				|| absoluteFile.equals(merge.getTargetFile().getAbsoluteFile())) {
+			return true;
+		}
+		for (Merge configured : this.merges) {
+			File targetFile = configured.getTargetFile().getAbsoluteFile();
+			if (absoluteFile.equals(MergeParts.getPartsFile(targetFile)) || MergeParts.isPartFile(targetFile, absoluteFile)) {
+				return true;
+			}
 		}
+		return false;
+	}
 
+	private void processSourceDirectory(File sourceDir, List<File> matchingFiles, MergeContext context) throws MojoExecutionException {
+		Merge merge = context.merge;
 		int numFiles = matchingFiles == null ? 0 : matchingFiles.size();
 		getLog().info("Sourced directory: " + sourceDir.getAbsolutePath() + " contains " + numFiles + " files to merge.");
 
@@ -250,18 +1372,23 @@ public class MergeMojo extends AbstractMojo {
 		if (matchingFiles != null) {
 			for (File file : matchingFiles) {
 
-				List<File> targetList = this.orderedFiles.get(DEFAULT_ORDERING_NAME);
+				// the target file is no longer removed before scanning so never merge it or its parts into itself
+				if (isMergeOutput(merge, file)) {
+					continue;
+				}
+
+				List<File> targetList = context.orderedFiles.get(DEFAULT_ORDERING_NAME);
 				// find the list to add the file to, if no list matches it gets added to the default list
-				for (String orderingName : this.orderingNames) {
-					if (this.useOrdering) {
-						if (file.getName().contains(orderingName)) {
+				if (context.useOrdering) {
+					String orderingName = context.orderingMatcher.matchName(file.getName());
+					if (orderingName != null) {
+						if (getLog().isDebugEnabled()) {
 							getLog().debug("Adding file: " + file.getAbsolutePath() + " to the list of files matching: " + orderingName);
-							targetList = this.orderedFiles.get(orderingName);
-							if (targetList == null) {
-								targetList = new ArrayList<File>();
-								this.orderedFiles.put(orderingName, targetList);
-							}
-							break;
+						}
+						targetList = context.orderedFiles.get(orderingName);
+						if (targetList == null) {
+							targetList = new ArrayList<File>();
+							context.orderedFiles.put(orderingName, targetList);
 						}
 					}
 				}
@@ -269,17 +1396,26 @@ public class MergeMojo extends AbstractMojo {
 				// if target list still null use default
 				if (targetList == null) {
 					targetList = new ArrayList<File>();
-					this.orderedFiles.put(DEFAULT_ORDERING_NAME, targetList);
+					context.orderedFiles.put(DEFAULT_ORDERING_NAME, targetList);
 				}
 
 				// dont add the same file twice unless configured to do so
 				if (merge.isDuplicatesAllowed()) {
 					targetList.add(file);
+					context.sourceDirs.put(file, sourceDir);
 				} else {
 
-					if (!this.addedFiles.contains(file.getAbsolutePath())) {
-						this.addedFiles.add(file.getAbsolutePath());
+					Object key;
+					try {
+						key = context.duplicateCheck.getKey(file);
+					} catch (IOException ioe) {
+						throw new MojoExecutionException("Failed to read the file: " + file.getAbsolutePath() + " to check whether it is a duplicate", ioe);
+					}
+					if (context.addedFiles.add(key)) {
 						targetList.add(file);
+						context.sourceDirs.put(file, sourceDir);
+					} else if (getLog().isDebugEnabled()) {
+						getLog().debug("Skipping the duplicate file: " + file.getAbsolutePath());
 					}
 				}
 			}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergeParts splits the files of a merge into parts no bigger than a maximum size so a target file can be
+ * written as a series of numbered part files e.g. merged-0001.sql, merged-0002.sql. Parts are only split at file
+ * boundaries so a single file bigger than the maximum size gets a part of its own. The part files are listed in
+ * a small properties file next to the target file named after the target file with a .parts suffix.
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeParts {
+
+	private static final String PARTS_SUFFIX = ".parts";
+	private static final String[] COMPRESSED_SUFFIXES = { ".gz", ".zst", ".lz4" };
+
+	private MergeParts() {
+		super();
+	}
+
+	/**
+	 * This splits the given entries into parts, the size of each entry is the size of its file plus the size
+	 * of its separator encoded with the given charset. When the files are transcoded or compressed this is only an
+	 * estimate of the size they take up in the part file.
+	 * @param entries The entries in the order they are to be appended
+	 * @param maxSize The maximum size of a part in bytes
+	 * @param separator The separator written above each file, may be null
+	 * @param charset The charset of the target file
+	 * @return The entries of each part in order
+	 */
+	static List<List<MergeEntry>> split(List<MergeEntry> entries, long maxSize, SeparatorTemplate separator, Charset charset) {
+		List<List<MergeEntry>> parts = new ArrayList<List<MergeEntry>>();
+		List<MergeEntry> part = new ArrayList<MergeEntry>();
+		long partSize = 0;
+		StringBuilder separatorBuilder = new StringBuilder();
+		for (MergeEntry entry : entries) {
+			long size = entry.size;
+			if (separator != null) {
+				separatorBuilder.setLength(0);
+				separator.render(separatorBuilder, entry.file, entry.sourceDir, entry.orderingName);
+				size += separatorBuilder.toString().getBytes(charset).length;
+			}
+			if (!part.isEmpty() && partSize + size > maxSize) {
+				parts.add(part);
+				part = new ArrayList<MergeEntry>();
+				partSize = 0;
+			}
+			part.add(entry);
+			partSize += size;
+		}
+		if (!part.isEmpty()) {
+			parts.add(part);
+		}
+		return parts;
+	}
+
+	/**
+	 * This gets the file listing the parts of the given target file
+	 * @param targetFile The merge target file
+	 * @return The parts file which lives next to the target file
+	 */
+	static File getPartsFile(File targetFile) {
+		return new File(targetFile.getAbsolutePath() + PARTS_SUFFIX);
+	}
+
+	/**
+	 * This gets the file of the given part, the part number is added before the extension of the target file
+	 * and before any compression suffix e.g. the second part of merged.sql.gz is merged-0002.sql.gz
+	 * @param targetFile The merge target file
+	 * @param part The number of the part starting at 1
+	 * @return The part file
+	 */
+	static File getPartFile(File targetFile, int part) {
+		String[] nameParts = splitName(targetFile.getName());
+		return new File(targetFile.getAbsoluteFile().getParentFile(), nameParts[0] + "-" + String.format("%04d", part) + nameParts[1]);
+	}
+
+	/**
+	 * This gets whether the given file is a part file of the given target file
+	 * @param targetFile The merge target file
+	 * @param file The file to check
+	 * @return True if the file is named like a part of the target file and lives next to it
+	 */
+	static boolean isPartFile(File targetFile, File file) {
+		File absoluteTarget = targetFile.getAbsoluteFile();
+		File absoluteFile = file.getAbsoluteFile();
+		if (absoluteTarget.getParentFile() == null || !absoluteTarget.getParentFile().equals(absoluteFile.getParentFile())) {
+			return false;
+		}
+		String[] nameParts = splitName(targetFile.getName());
+		String name = absoluteFile.getName();
+		if (name.endsWith(MergeIndex.INDEX_SUFFIX)) {
+			name = name.substring(0, name.length() - MergeIndex.INDEX_SUFFIX.length());
+		}
+		return Pattern.matches(Pattern.quote(nameParts[0]) + "-\\d{4,}" + Pattern.quote(nameParts[1]), name);
+	}
+
+	private static String[] splitName(String name) {
+		String suffix = "";
+		for (String compressedSuffix : COMPRESSED_SUFFIXES) {
+			if (name.endsWith(compressedSuffix) && name.length() > compressedSuffix.length()) {
+				suffix = compressedSuffix;
+				name = name.substring(0, name.length() - compressedSuffix.length());
+				break;
+			}
+		}
+		int dotPos = name.lastIndexOf('.');
+		if (dotPos > 0) {
+			suffix = name.substring(dotPos) + suffix;
+			name = name.substring(0, dotPos);
+		}
+		return new String[] { name, suffix };
+	}
+
+	/**
+	 * This writes the parts file of the given target file
+	 * @param targetFile The merge target file
+	 * @param partFiles The part files in order, they must already be written
+	 * @param numFiles The number of merged files in each part
+	 * @throws IOException If the parts file could not be written
+	 */
+	static void write(File targetFile, List<File> partFiles, List<Integer> numFiles) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("parts", String.valueOf(partFiles.size()));
+		for (int i = 0; i < partFiles.size(); i++) {
+			File partFile = partFiles.get(i);
+			props.setProperty("part." + i + ".name", partFile.getName());
+			props.setProperty("part." + i + ".size", String.valueOf(partFile.length()));
+			props.setProperty("part." + i + ".files", String.valueOf(numFiles.get(i)));
+		}
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(getPartsFile(targetFile));
+			props.store(output, "Generated by the maven-merge-file-plugin, do not edit");
+		} finally {
+			IOUtils.closeQuietly(output);
+		}
+	}
+
+	/**
+	 * This reads the part files listed in the parts file of the given target file
+	 * @param targetFile The merge target file
+	 * @return The part files or an empty list if there is no parts file
+	 * @throws IOException If the parts file exists but could not be read
+	 */
+	static List<File> read(File targetFile) throws IOException {
+		List<File> partFiles = new ArrayList<File>();
+		File partsFile = getPartsFile(targetFile);
+		if (!partsFile.exists()) {
+			return partFiles;
+		}
+		Properties props = new Properties();
+		InputStream input = null;
+		try {
+			input = new FileInputStream(partsFile);
+			props.load(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+		try {
+			int numParts = Integer.parseInt(props.getProperty("parts", "0"));
+			for (int i = 0; i < numParts; i++) {
+				String name = props.getProperty("part." + i + ".name");
+				if (name != null) {
+					partFiles.add(new File(partsFile.getParentFile(), name));
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			throw new IOException("The parts file: " + partsFile.getAbsolutePath() + " is corrupt", nfe);
+		}
+		return partFiles;
+	}
+
+	/**
+	 * This deletes the parts file of the given target file and its merge manifest along with the part files it lists
+	 * and their indexes
+	 * @param targetFile The merge target file
+	 * @throws IOException If the parts file could not be read
+	 */
+	static void delete(File targetFile) throws IOException {
+		for (File partFile : read(targetFile)) {
+			partFile.delete();
+			MergeIndex.getIndexFile(partFile).delete();
+		}
+		getPartsFile(targetFile).delete();
+		MergeManifest.getManifestFile(getPartsFile(targetFile)).delete();
+	}
+
+}
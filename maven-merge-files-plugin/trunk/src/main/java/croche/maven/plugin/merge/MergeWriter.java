@@ -0,0 +1,532 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import croche.maven.shared.ProgressReporter;
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergeWriter appends files to a merged target file. When the source and target charsets are the same
+ * and the target charset does not write a byte order mark the files are appended as raw bytes, directly from
+ * file channel to file channel when the target is not compressed, otherwise each file is transcoded from the
+ * source charset to the target charset so a target such as UTF-16 only starts with one byte order mark.
+ * Source files ending in .gz are only decompressed as they are read when the merge asks for it. Separators are rendered from the compiled
+ * template into a reused buffer rather than being built as a new string for each file. When content transforms
+ * are configured every file is decoded so its content can be passed through them in a reused char buffer.
+ * Files are transcoded by a single {@link Transcoder} for the target file rather than a reader and writer for each
+ * file. When charset detection is on the charset of each file is taken from its byte order mark, falling back to the
+ * source charset, and the byte order mark is dropped, files already in the target charset are still appended as raw bytes.
+ * @version $Id$
+ * @author conorroche
+ */
+class MergeWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String GZIP_SUFFIX = ".gz";
+
+	private final Charset sourceCharset;
+	private final Charset targetCharset;
+	private final boolean byteLevel;
+	// whether content in the target charset can be written as raw bytes, not when the target starts with a byte order mark
+	private final boolean rawAllowed;
+	private final FileOutputStream fileOutput;
+	// the channel of the target file, only set when the target is not compressed
+	private final FileChannel fileChannel;
+	private final OutputStream output;
+	private final boolean detectCharsets;
+	private final boolean decompressSources;
+	// transcodes the files that are not appended as raw bytes, created when the first one is appended
+	private Transcoder transcoder;
+	private final SeparatorTemplate separator;
+	private final StringBuilder separatorBuilder = new StringBuilder();
+	private final List<ContentTransform> transformList;
+	private TransformChain transforms;
+	private byte[] buffer;
+	// how the content of the entry being appended is written and the first bytes held back to detect its charset
+	private ContentMode mode;
+	private final byte[] head = new byte[Transcoder.MAX_BOM_LENGTH];
+	private int headLength;
+	private char[] separatorChars;
+	private CharsetEncoder separatorEncoder;
+	private ByteBuffer separatorBytes;
+	private MergeIndex index;
+	private ProgressReporter progress;
+	// the position the content of the file being appended started at when indexing
+	private long contentStart;
+	// the length of the byte order mark the encoder writes at the start of the target file when indexing
+	private int targetBomLength;
+
+	/**
+	 * This creates a MergeWriter, the target file is appended to if it exists
+	 * @param targetFile The target file to write
+	 * @param sourceCharset The charset of the files being merged
+	 * @param targetCharset The charset of the target file
+	 * @param compression The compression of the target file
+	 * @param separator The separator to write above each file, may be null
+	 * @param transforms The transforms to apply to the content of each file in order, may be empty
+	 * @param detectCharsets Whether the charset of each file is detected from its byte order mark
+	 * @param decompressSources Whether source files ending in .gz are decompressed as they are read
+	 * @throws IOException If the target file could not be opened
+	 */
+	MergeWriter(File targetFile, Charset sourceCharset, Charset targetCharset, Compression compression, SeparatorTemplate separator,
+			List<ContentTransform> transforms, boolean detectCharsets, boolean decompressSources) throws IOException {
+		this.separator = separator;
+		this.detectCharsets = detectCharsets;
+		this.decompressSources = decompressSources;
+		this.transformList = transforms;
+		this.sourceCharset = sourceCharset;
+		this.targetCharset = targetCharset;
+		this.rawAllowed = transforms.isEmpty() && !Transcoder.writesByteOrderMark(targetCharset);
+		this.byteLevel = this.rawAllowed && sourceCharset.equals(targetCharset);
+		this.fileOutput = new FileOutputStream(targetFile, true);
+		try {
+			this.output = compression.wrap(this.fileOutput);
+		} catch (IOException ioe) {
+			IOUtils.closeQuietly(this.fileOutput);
+			throw ioe;
+		}
+		this.fileChannel = this.output == this.fileOutput ? this.fileOutput.getChannel() : null;
+	}
+
+	/**
+	 * This gets whether files are appended as raw bytes rather than being transcoded or transformed, files with a byte
+	 * order mark for another charset are still transcoded when charset detection is on
+	 * @return True if files are appended as raw bytes
+	 */
+	boolean isByteLevel() {
+		return this.byteLevel;
+	}
+
+	/**
+	 * This sets the index to record the position of each appended file in, only supported for uncompressed target files
+	 * @param index The index to record the appended files in
+	 */
+	void setIndex(MergeIndex index) {
+		if (this.fileChannel == null) {
+			throw new IllegalStateException("The positions of appended files can only be indexed for uncompressed target files");
+		}
+		this.index = index;
+		this.targetBomLength = this.byteLevel ? 0 : Transcoder.getByteOrderMarkLength(this.targetCharset);
+	}
+
+	/**
+	 * This sets the reporter to record each appended file in
+	 * @param progress The progress reporter
+	 */
+	void setProgress(ProgressReporter progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * This appends the given entry to the target file
+	 * @param entry The entry to append
+	 * @throws IOException If the file could not be appended
+	 */
+	void append(MergeEntry entry) throws IOException {
+		long start = getTransferStart(entry.file);
+		if (start >= 0) {
+			transfer(entry, start);
+			return;
+		}
+		startEntry(entry);
+		InputStream source = null;
+		try {
+			source = openContent(entry.file, this.decompressSources);
+			byte[] buffer = getBuffer();
+			int read;
+			while ((read = source.read(buffer)) != -1) {
+				write(buffer, 0, read);
+			}
+		} finally {
+			IOUtils.closeQuietly(source);
+		}
+		endEntry(entry);
+	}
+
+	/**
+	 * This gets the position the given file can be copied to the target file from by the os, this is when there is
+	 * nothing to decode, transform or compress
+	 * @param file The file to append
+	 * @return The position to copy the file from or -1 if its content has to be written through this writer
+	 * @throws IOException If the start of the file could not be read
+	 */
+	long getTransferStart(File file) throws IOException {
+		return this.byteLevel && this.fileChannel != null && !isDecompressed(file) ? getRawStart(file) : -1;
+	}
+
+	/**
+	 * This appends the given entry by letting the os copy its file from channel to channel
+	 * @param entry The entry to append
+	 * @param start The position to copy the file from as returned by {@link #getTransferStart(File)}
+	 * @throws IOException If the file could not be appended
+	 */
+	void transfer(MergeEntry entry, long start) throws IOException {
+		startEntry(entry);
+		this.mode = ContentMode.RAW;
+		transferFile(entry.file, start);
+		endEntry(entry);
+	}
+
+	/**
+	 * This starts appending the given entry writing its separator if there is one, the content of the file
+	 * is then passed to {@link #write(byte[], int, int)} followed by a call to {@link #endEntry(MergeEntry)}.
+	 * This lets the content of a file read once be appended to several target files.
+	 * @param entry The entry being appended
+	 * @throws IOException If the separator could not be written
+	 */
+	void startEntry(MergeEntry entry) throws IOException {
+		if (this.separator != null) {
+			this.separatorBuilder.setLength(0);
+			this.separator.render(this.separatorBuilder, entry.file, entry.sourceDir, entry.orderingName);
+			if (this.byteLevel) {
+				ByteBuffer bytes = encodeSeparator();
+				if (this.fileChannel != null) {
+					while (bytes.hasRemaining()) {
+						this.fileChannel.write(bytes);
+					}
+				} else {
+					this.output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+				}
+			} else {
+				int length = this.separatorBuilder.length();
+				if (this.separatorChars == null || this.separatorChars.length < length) {
+					this.separatorChars = new char[Math.max(length, 256)];
+				}
+				this.separatorBuilder.getChars(0, length, this.separatorChars, 0);
+				getTranscoder().getWriter().write(this.separatorChars, 0, length);
+			}
+		}
+		if (this.index != null) {
+			this.contentStart = getPosition();
+			if (this.contentStart == 0) {
+				// nothing has been encoded yet so the byte order mark is still to be written ahead of the content
+				this.contentStart = this.targetBomLength;
+			}
+		}
+		this.headLength = 0;
+		if (this.detectCharsets) {
+			this.mode = ContentMode.DETECT;
+		} else if (this.byteLevel) {
+			this.mode = ContentMode.RAW;
+		} else {
+			startDecoding(this.sourceCharset);
+		}
+	}
+
+	/**
+	 * This writes the next chunk of the content of the entry being appended, the bytes are in the source charset
+	 * and are written as they are when appending raw bytes, otherwise they are decoded with the source charset,
+	 * passed through the transforms if any and encoded with the target charset
+	 * @param bytes The buffer holding the chunk
+	 * @param offset The offset of the chunk in the buffer
+	 * @param length The length of the chunk
+	 * @throws IOException If the chunk could not be written
+	 */
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		if (this.mode == ContentMode.DETECT) {
+			int count = Math.min(length, this.head.length - this.headLength);
+			System.arraycopy(bytes, offset, this.head, this.headLength, count);
+			this.headLength += count;
+			offset += count;
+			length -= count;
+			if (this.headLength < this.head.length) {
+				return;
+			}
+			resolveCharset();
+		}
+		if (length == 0) {
+			return;
+		}
+		if (this.mode == ContentMode.RAW) {
+			this.output.write(bytes, offset, length);
+		} else {
+			this.transcoder.write(bytes, offset, length);
+		}
+	}
+
+	/**
+	 * This detects the charset of the entry being appended from the bytes held back at its start and writes them
+	 * without the byte order mark, the content is appended as raw bytes when it is already in the target charset
+	 * and there are no transforms otherwise it is decoded with the detected charset
+	 * @throws IOException If the held back bytes could not be written
+	 */
+	private void resolveCharset() throws IOException {
+		Charset detected = Transcoder.detectCharset(this.head, this.headLength);
+		int bomLength = detected == null ? 0 : Transcoder.getBomLength(detected);
+		Charset charset = detected == null ? this.sourceCharset : detected;
+		if (this.rawAllowed && charset.equals(this.targetCharset)) {
+			flushTranscoder();
+			this.mode = ContentMode.RAW;
+			this.output.write(this.head, bomLength, this.headLength - bomLength);
+		} else {
+			startDecoding(charset);
+			this.transcoder.write(this.head, bomLength, this.headLength - bomLength);
+		}
+	}
+
+	/**
+	 * This starts decoding the content of the entry being appended with the given charset
+	 * @param charset The charset of the entry
+	 */
+	private void startDecoding(Charset charset) {
+		Transcoder entryTranscoder = getTranscoder();
+		if (this.transforms == null && !this.transformList.isEmpty()) {
+			this.transforms = new TransformChain(this.transformList, entryTranscoder.getWriter());
+		}
+		entryTranscoder.start(charset, this.transforms != null ? this.transforms.asWriter() : entryTranscoder.getWriter());
+		this.mode = ContentMode.DECODE;
+	}
+
+	/**
+	 * This finishes appending the given entry writing out anything held back by the decoder and the transforms
+	 * and recording the entry in the index if there is one
+	 * @param entry The entry being appended
+	 * @throws IOException If the end of the content could not be written
+	 */
+	void endEntry(MergeEntry entry) throws IOException {
+		if (this.mode == ContentMode.DETECT) {
+			// the file is shorter than the longest byte order mark
+			resolveCharset();
+		}
+		if (this.mode == ContentMode.DECODE) {
+			this.transcoder.finish();
+			if (this.transforms != null) {
+				this.transforms.finish();
+			}
+			if (this.byteLevel) {
+				// the next file may be appended as raw bytes so write out the chars of this one first
+				this.transcoder.flush();
+			}
+		}
+		this.mode = null;
+		if (this.index != null) {
+			// an empty file at the start of the target file leaves the byte order mark unwritten
+			long end = getPosition();
+			this.index.add(entry.orderingName, entry.file, Math.min(this.contentStart, end), end);
+		}
+		if (this.progress != null) {
+			this.progress.fileAppended(entry.orderingName, entry.file, entry.size);
+		}
+	}
+
+	/**
+	 * This gets the position in the target file that the next byte will be written to
+	 * @return The position in the target file
+	 * @throws IOException If the position could not be read
+	 */
+	private long getPosition() throws IOException {
+		flushTranscoder();
+		return this.fileChannel.position();
+	}
+
+	private void flushTranscoder() throws IOException {
+		if (this.transcoder != null) {
+			this.transcoder.flush();
+		}
+	}
+
+	private Transcoder getTranscoder() {
+		if (this.transcoder == null) {
+			this.transcoder = new Transcoder(this.targetCharset, this.output);
+		}
+		return this.transcoder;
+	}
+
+	/**
+	 * This gets the position the content of the given uncompressed file can be copied from as raw bytes, after its
+	 * byte order mark if charset detection is on
+	 * @param file The file to copy
+	 * @return The position to copy the file from or -1 if the file has to be decoded
+	 * @throws IOException If the start of the file could not be read
+	 */
+	private long getRawStart(File file) throws IOException {
+		if (!this.detectCharsets) {
+			return 0;
+		}
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			int length = 0;
+			int read;
+			while (length < this.head.length && (read = input.read(this.head, length, this.head.length - length)) != -1) {
+				length += read;
+			}
+			Charset detected = Transcoder.detectCharset(this.head, length);
+			if (detected == null) {
+				return this.sourceCharset.equals(this.targetCharset) ? 0 : -1;
+			}
+			return detected.equals(this.targetCharset) ? Transcoder.getBomLength(detected) : -1;
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * This copies the given uncompressed file to the end of the uncompressed target file from channel to channel
+	 * @param file The file to copy
+	 * @param start The position in the file to copy from
+	 * @throws IOException If the file could not be copied
+	 */
+	private void transferFile(File file, long start) throws IOException {
+		flushTranscoder();
+		FileInputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			FileChannel source = input.getChannel();
+			long size = source.size();
+			long position = start;
+			while (position < size) {
+				long transferred = source.transferTo(position, size - position, this.fileChannel);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+			}
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * This flushes and closes the target file, finishing the compressed data if the target is compressed
+	 * @throws IOException If the target file could not be written
+	 */
+	void close() throws IOException {
+		try {
+			if (this.transcoder != null) {
+				this.transcoder.close();
+			}
+			this.output.close();
+		} finally {
+			IOUtils.closeQuietly(this.fileOutput);
+		}
+	}
+
+	/**
+	 * This closes the target file ignoring any errors, used when the merge failed
+	 */
+	void closeQuietly() {
+		if (this.transcoder != null) {
+			this.transcoder.releaseBuffers();
+		}
+		IOUtils.closeQuietly(this.output);
+		IOUtils.closeQuietly(this.fileOutput);
+	}
+
+	/**
+	 * This encodes the rendered separator with the target charset into the reused separator buffer
+	 * @return The buffer holding the encoded separator ready to be written
+	 * @throws CharacterCodingException If the separator could not be encoded
+	 */
+	private ByteBuffer encodeSeparator() throws CharacterCodingException {
+		if (this.separatorEncoder == null) {
+			this.separatorEncoder = this.targetCharset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.separatorBytes = ByteBuffer.allocate(256);
+		}
+		int required = (int) Math.ceil(this.separatorBuilder.length() * (double) this.separatorEncoder.maxBytesPerChar());
+		if (this.separatorBytes.capacity() < required) {
+			this.separatorBytes = ByteBuffer.allocate(required);
+		}
+		this.separatorBytes.clear();
+		this.separatorEncoder.reset();
+		CharBuffer chars = CharBuffer.wrap(this.separatorBuilder);
+		CoderResult result = this.separatorEncoder.encode(chars, this.separatorBytes, true);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		result = this.separatorEncoder.flush(this.separatorBytes);
+		if (!result.isUnderflow()) {
+			result.throwException();
+		}
+		this.separatorBytes.flip();
+		return this.separatorBytes;
+	}
+
+	private byte[] getBuffer() {
+		if (this.buffer == null) {
+			this.buffer = new byte[BUFFER_SIZE];
+		}
+		return this.buffer;
+	}
+
+	/**
+	 * This gets whether the given source file is decompressed as it is read by this writer
+	 * @param file The source file
+	 * @return True if the file is decompressed
+	 */
+	boolean isDecompressed(File file) {
+		return this.decompressSources && isCompressed(file);
+	}
+
+	/**
+	 * This opens the content of the given source file
+	 * @param file The source file
+	 * @param decompress Whether to decompress the file if it is gzip compressed
+	 * @return The stream of the content of the file
+	 * @throws IOException If the file could not be opened
+	 */
+	static InputStream openContent(File file, boolean decompress) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		if (!decompress || !isCompressed(file)) {
+			return input;
+		}
+		try {
+			return new GZIPInputStream(input, BUFFER_SIZE);
+		} catch (IOException ioe) {
+			IOUtils.closeQuietly(input);
+			throw ioe;
+		}
+	}
+
+	/**
+	 * This gets whether the given source file is gzip compressed going by its name
+	 * @param file The source file
+	 * @return True if the file is compressed
+	 */
+	static boolean isCompressed(File file) {
+		return file.getName().endsWith(GZIP_SUFFIX);
+	}
+
+	/**
+	 * The ContentMode is how the content of the entry being appended is written
+	 */
+	private enum ContentMode {
+		/** The first bytes are held back until its charset is detected */
+		DETECT,
+		/** The bytes are written as they are */
+		RAW,
+		/** The bytes are decoded and transformed if there are transforms */
+		DECODE
+	}
+
+}
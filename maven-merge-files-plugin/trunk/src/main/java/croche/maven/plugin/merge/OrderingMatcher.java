@@ -0,0 +1,189 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The OrderingMatcher finds which of a list of ordering names a file name contains. Short lists are checked
+ * in turn with {@link String#contains(CharSequence)} as that is the quickest way to match a handful of names,
+ * longer lists are compiled once into an Aho-Corasick automaton so that each file name is matched in a single
+ * pass regardless of how many ordering names there are. When a name contains several ordering names the one
+ * listed first wins either way.
+ * @version $Id$
+ * @author conorroche
+ */
+class OrderingMatcher {
+
+	/**
+	 * The number of ordering names from which they are compiled into an automaton, measured with the MergeBenchmark
+	 */
+	static final int AUTOMATON_THRESHOLD = 28;
+
+	private static final char[] NO_CHARS = new char[0];
+	private static final Node[] NO_NODES = new Node[0];
+
+	/**
+	 * A state of the automaton
+	 */
+	private static final class Node {
+
+		// sorted transition characters and their target nodes
+		char[] chars = NO_CHARS;
+		Node[] next = NO_NODES;
+		Node fail;
+		// the lowest index of any ordering name ending at this state or any of its suffix states
+		int best = Integer.MAX_VALUE;
+
+		Node get(char c) {
+			int pos = Arrays.binarySearch(this.chars, c);
+			return pos >= 0 ? this.next[pos] : null;
+		}
+
+		Node add(char c) {
+			int pos = Arrays.binarySearch(this.chars, c);
+			if (pos >= 0) {
+				return this.next[pos];
+			}
+			int insert = -(pos + 1);
+			char[] chars = new char[this.chars.length + 1];
+			Node[] next = new Node[this.next.length + 1];
+			System.arraycopy(this.chars, 0, chars, 0, insert);
+			System.arraycopy(this.next, 0, next, 0, insert);
+			System.arraycopy(this.chars, insert, chars, insert + 1, this.chars.length - insert);
+			System.arraycopy(this.next, insert, next, insert + 1, this.next.length - insert);
+			Node node = new Node();
+			chars[insert] = c;
+			next[insert] = node;
+			this.chars = chars;
+			this.next = next;
+			return node;
+		}
+	}
+
+	private final Node root = new Node();
+	private final List<String> orderingNames;
+	// whether the names are matched with the automaton rather than checked in turn
+	private final boolean compiled;
+
+	/**
+	 * This creates an OrderingMatcher
+	 * @param orderingNames The ordering names in priority order, the first listed has the highest priority
+	 */
+	OrderingMatcher(List<String> orderingNames) {
+		this(orderingNames, AUTOMATON_THRESHOLD);
+	}
+
+	/**
+	 * This creates an OrderingMatcher
+	 * @param orderingNames The ordering names in priority order, the first listed has the highest priority
+	 * @param automatonThreshold The number of ordering names from which they are compiled into an automaton
+	 */
+	OrderingMatcher(List<String> orderingNames, int automatonThreshold) {
+		this.orderingNames = new ArrayList<String>(orderingNames);
+		this.compiled = this.orderingNames.size() >= automatonThreshold;
+		if (this.compiled) {
+			compile();
+		}
+	}
+
+	/**
+	 * This compiles the ordering names into the automaton
+	 */
+	private void compile() {
+		for (int i = 0; i < this.orderingNames.size(); i++) {
+			String name = this.orderingNames.get(i);
+			Node node = this.root;
+			for (int c = 0; c < name.length(); c++) {
+				node = node.add(name.charAt(c));
+			}
+			node.best = Math.min(node.best, i);
+		}
+		buildFailureLinks();
+	}
+
+	/**
+	 * This builds the failure links breadth first so that each state knows the longest proper suffix
+	 * that is also a state, and folds the best ordering index of that suffix into the state
+	 */
+	private void buildFailureLinks() {
+		LinkedList<Node> queue = new LinkedList<Node>();
+		for (Node child : this.root.next) {
+			child.fail = this.root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.removeFirst();
+			for (int i = 0; i < node.chars.length; i++) {
+				char c = node.chars[i];
+				Node child = node.next[i];
+				Node fail = node.fail;
+				while (fail != null && fail.get(c) == null) {
+					fail = fail.fail;
+				}
+				child.fail = fail == null ? this.root : fail.get(c);
+				child.best = Math.min(child.best, child.fail.best);
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * This gets the index of the first listed ordering name that the given name contains
+	 * @param name The name to match
+	 * @return The index of the matching ordering name or -1 if the name contains none of them
+	 */
+	int match(String name) {
+		if (!this.compiled) {
+			for (int i = 0; i < this.orderingNames.size(); i++) {
+				if (name.contains(this.orderingNames.get(i))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int best = Integer.MAX_VALUE;
+		Node node = this.root;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			Node next = node.get(c);
+			while (next == null && node != this.root) {
+				node = node.fail;
+				next = node.get(c);
+			}
+			node = next == null ? this.root : next;
+			if (node.best < best) {
+				best = node.best;
+				if (best == 0) {
+					// nothing can beat the first listed ordering name
+					break;
+				}
+			}
+		}
+		return best == Integer.MAX_VALUE ? -1 : best;
+	}
+
+	/**
+	 * This gets the first listed ordering name that the given name contains
+	 * @param name The name to match
+	 * @return The matching ordering name or null if the name contains none of them
+	 */
+	String matchName(String name) {
+		int index = match(name);
+		return index < 0 ? null : this.orderingNames.get(index);
+	}
+
+}
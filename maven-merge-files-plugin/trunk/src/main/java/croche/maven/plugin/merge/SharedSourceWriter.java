@@ -0,0 +1,179 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The SharedSourceWriter writes the target files of several merges that append some of the same source files,
+ * each source file is read once and its content is passed to every target file that decodes, transforms or
+ * compresses it while the target files that take it as it is copy it from channel to channel. This needs
+ * an order of the source files that keeps the order of the files of every merge, merges that append the same files
+ * in a different order can not share their reads.
+ * @version $Id$
+ * @author conorroche
+ */
+class SharedSourceWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private SharedSourceWriter() {
+		super();
+	}
+
+	/**
+	 * This finds an order to read the source files of the given merges in which keeps the order the files are
+	 * appended to each target file
+	 * @param entryLists The entries of each merge in the order they are to be appended
+	 * @return Each distinct source file in the order to read them or null if the merges append the files they
+	 * share in a different order or a merge appends the same file more than once
+	 */
+	static List<File> order(List<List<MergeEntry>> entryLists) {
+		int numLists = entryLists.size();
+		List<Map<File, Integer>> positions = new ArrayList<Map<File, Integer>>(numLists);
+		int total = 0;
+		for (List<MergeEntry> entries : entryLists) {
+			Map<File, Integer> listPositions = new HashMap<File, Integer>(entries.size() * 2);
+			for (int i = 0; i < entries.size(); i++) {
+				if (listPositions.put(entries.get(i).file, i) != null) {
+					return null;
+				}
+			}
+			positions.add(listPositions);
+			total += entries.size();
+		}
+
+		// repeatedly take the first file at the head of a list that is at the head of every list holding it,
+		// if a valid order exists there is always such a file
+		List<File> order = new ArrayList<File>(total);
+		int[] next = new int[numLists];
+		while (true) {
+			File ready = null;
+			boolean remaining = false;
+			for (int i = 0; i < numLists && ready == null; i++) {
+				if (next[i] == entryLists.get(i).size()) {
+					continue;
+				}
+				remaining = true;
+				File head = entryLists.get(i).get(next[i]).file;
+				boolean atHead = true;
+				for (int j = 0; j < numLists && atHead; j++) {
+					Integer position = positions.get(j).get(head);
+					atHead = position == null || position.intValue() == next[j];
+				}
+				if (atHead) {
+					ready = head;
+				}
+			}
+			if (ready == null) {
+				return remaining ? null : order;
+			}
+			order.add(ready);
+			for (int j = 0; j < numLists; j++) {
+				if (positions.get(j).containsKey(ready)) {
+					next[j]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * This reads each of the given source files once and appends its content to the writer of every merge appending it,
+	 * the targets that take the file as it is copy it from channel to channel instead so the os does the copying and
+	 * the file is only read through the shared buffer for the targets that decode, transform or compress it
+	 * @param order The source files in the order to read them as returned by {@link #order(List)}
+	 * @param entryLists The entries of each merge in the order they are to be appended
+	 * @param writers The writer of the target file of each merge in the same order as the entries
+	 * @throws IOException If a file could not be read or appended
+	 */
+	static void write(List<File> order, List<List<MergeEntry>> entryLists, List<MergeWriter> writers) throws IOException {
+		int numLists = entryLists.size();
+		int[] next = new int[numLists];
+		int[] targets = new int[numLists];
+		int[] decompressTargets = new int[numLists];
+		byte[] buffer = new byte[BUFFER_SIZE];
+		for (File file : order) {
+			int numTargets = 0;
+			int numDecompressTargets = 0;
+			try {
+				for (int i = 0; i < numLists; i++) {
+					List<MergeEntry> entries = entryLists.get(i);
+					if (next[i] < entries.size() && entries.get(next[i]).file.equals(file)) {
+						MergeWriter writer = writers.get(i);
+						long start = writer.getTransferStart(file);
+						if (start >= 0) {
+							writer.transfer(entries.get(next[i]), start);
+							next[i]++;
+						} else if (writer.isDecompressed(file)) {
+							decompressTargets[numDecompressTargets++] = i;
+						} else {
+							targets[numTargets++] = i;
+						}
+					}
+				}
+				// the targets that decompress a .gz file and the ones that take it compressed see different content
+				appendShared(file, false, targets, numTargets, next, entryLists, writers, buffer);
+				appendShared(file, true, decompressTargets, numDecompressTargets, next, entryLists, writers, buffer);
+			} catch (IOException ioe) {
+				throw new IOException("Failed to append the file: " + file.getAbsolutePath(), ioe);
+			}
+		}
+	}
+
+	/**
+	 * This reads the given source file once and appends its content to the writers of the given targets
+	 * @param file The source file
+	 * @param decompress Whether the file is decompressed as it is read
+	 * @param targets The indexes of the merges to append the file to
+	 * @param numTargets The number of targets
+	 * @param next The index of the next entry of each merge, moved on for each target
+	 * @param entryLists The entries of each merge in the order they are to be appended
+	 * @param writers The writer of the target file of each merge
+	 * @param buffer The buffer to read the file through
+	 * @throws IOException If the file could not be read or appended
+	 */
+	private static void appendShared(File file, boolean decompress, int[] targets, int numTargets, int[] next, List<List<MergeEntry>> entryLists,
+			List<MergeWriter> writers, byte[] buffer) throws IOException {
+		if (numTargets == 0) {
+			return;
+		}
+		for (int t = 0; t < numTargets; t++) {
+			writers.get(targets[t]).startEntry(entryLists.get(targets[t]).get(next[targets[t]]));
+		}
+		InputStream source = null;
+		try {
+			source = MergeWriter.openContent(file, decompress);
+			int read;
+			while ((read = source.read(buffer)) != -1) {
+				for (int t = 0; t < numTargets; t++) {
+					writers.get(targets[t]).write(buffer, 0, read);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(source);
+		}
+		for (int t = 0; t < numTargets; t++) {
+			writers.get(targets[t]).endEntry(entryLists.get(targets[t]).get(next[targets[t]]));
+			next[targets[t]]++;
+		}
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Transcoder decodes the content of source files and encodes it with the charset of a target file using one
+ * reused decoder for each source charset, one reused encoder and buffers taken from the {@link BufferPool}, so no
+ * reader or writer is created for each file. The charset of a source file can be detected from its byte order mark.
+ * Malformed and unmappable input is replaced the same way an InputStreamReader and OutputStreamWriter would.
+ * @version $Id$
+ * @author conorroche
+ */
+class Transcoder {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+	private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+	private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+	private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+	/**
+	 * The number of bytes needed to detect any byte order mark
+	 */
+	static final int MAX_BOM_LENGTH = 4;
+
+	private final OutputStream output;
+	private final CharsetEncoder encoder;
+	private final Map<Charset, CharsetDecoder> decoders = new HashMap<Charset, CharsetDecoder>();
+	private final EncodingWriter writer = new EncodingWriter();
+	private ByteBuffer decoderInput;
+	private CharBuffer decoderOutput;
+	private CharBuffer encoderInput;
+	private ByteBuffer encoderOutput;
+	// the decoder and the writer of the chars of the file being decoded
+	private CharsetDecoder decoder;
+	private Writer sink;
+
+	/**
+	 * This creates a Transcoder
+	 * @param targetCharset The charset to encode with
+	 * @param output The stream to write the encoded bytes to, it is not closed by the transcoder
+	 */
+	Transcoder(Charset targetCharset, OutputStream output) {
+		this.output = output;
+		this.encoder = targetCharset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.decoderInput = BufferPool.acquireBytes();
+		this.decoderOutput = BufferPool.acquireChars();
+		this.encoderInput = BufferPool.acquireChars();
+		this.encoderOutput = BufferPool.acquireBytes();
+	}
+
+	/**
+	 * This gets the writer that encodes the chars written to it with the target charset
+	 * @return The writer, closing it has no effect
+	 */
+	Writer getWriter() {
+		return this.writer;
+	}
+
+	/**
+	 * This starts decoding the content of a file
+	 * @param sourceCharset The charset of the file
+	 * @param charSink The writer to write the decoded chars to, either the writer of this transcoder or a writer that
+	 * transforms the chars before writing them to it
+	 */
+	void start(Charset sourceCharset, Writer charSink) {
+		CharsetDecoder sourceDecoder = this.decoders.get(sourceCharset);
+		if (sourceDecoder == null) {
+			sourceDecoder = sourceCharset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.decoders.put(sourceCharset, sourceDecoder);
+		}
+		sourceDecoder.reset();
+		this.decoder = sourceDecoder;
+		this.sink = charSink;
+		this.decoderInput.clear();
+	}
+
+	/**
+	 * This decodes the next chunk of the content of the file being decoded
+	 * @param bytes The buffer holding the chunk
+	 * @param offset The offset of the chunk in the buffer
+	 * @param length The length of the chunk
+	 * @throws IOException If the decoded chars could not be written
+	 */
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			// the input buffer may still hold the start of a char split across chunks
+			int count = Math.min(length, this.decoderInput.remaining());
+			this.decoderInput.put(bytes, offset, count);
+			offset += count;
+			length -= count;
+			this.decoderInput.flip();
+			decode(false);
+			this.decoderInput.compact();
+		}
+	}
+
+	/**
+	 * This finishes decoding the file writing out anything held back by the decoder
+	 * @throws IOException If the decoded chars could not be written
+	 */
+	void finish() throws IOException {
+		this.decoderInput.flip();
+		decode(true);
+		while (this.decoder.flush(this.decoderOutput).isOverflow()) {
+			writeDecoded();
+		}
+		writeDecoded();
+		this.decoderInput.clear();
+		this.decoder = null;
+		this.sink = null;
+	}
+
+	/**
+	 * This encodes the chars written so far and writes their bytes to the output stream
+	 * @throws IOException If the bytes could not be written
+	 */
+	void flush() throws IOException {
+		this.writer.flush();
+	}
+
+	/**
+	 * This encodes the chars written so far, writes their bytes to the output stream and returns the buffers to the pool
+	 * @throws IOException If the bytes could not be written
+	 */
+	void close() throws IOException {
+		try {
+			this.encoderInput.flip();
+			encode(true);
+			while (this.encoder.flush(this.encoderOutput).isOverflow()) {
+				writeEncoded();
+			}
+			writeEncoded();
+		} finally {
+			releaseBuffers();
+		}
+	}
+
+	/**
+	 * This returns the buffers to the pool without writing anything, used when the target file failed
+	 */
+	void releaseBuffers() {
+		BufferPool.release(this.decoderInput);
+		BufferPool.release(this.decoderOutput);
+		BufferPool.release(this.encoderInput);
+		BufferPool.release(this.encoderOutput);
+		this.decoderInput = null;
+		this.decoderOutput = null;
+		this.encoderInput = null;
+		this.encoderOutput = null;
+	}
+
+	private void decode(boolean endOfInput) throws IOException {
+		while (this.decoder.decode(this.decoderInput, this.decoderOutput, endOfInput).isOverflow()) {
+			writeDecoded();
+		}
+		writeDecoded();
+	}
+
+	private void writeDecoded() throws IOException {
+		if (this.decoderOutput.position() > 0) {
+			this.sink.write(this.decoderOutput.array(), this.decoderOutput.arrayOffset(), this.decoderOutput.position());
+			this.decoderOutput.clear();
+		}
+	}
+
+	private void encode(boolean endOfInput) throws IOException {
+		CoderResult result;
+		while ((result = this.encoder.encode(this.encoderInput, this.encoderOutput, endOfInput)).isOverflow()) {
+			writeEncoded();
+		}
+		if (result.isError()) {
+			result.throwException();
+		}
+	}
+
+	private void writeEncoded() throws IOException {
+		if (this.encoderOutput.position() > 0) {
+			this.output.write(this.encoderOutput.array(), this.encoderOutput.arrayOffset(), this.encoderOutput.position());
+			this.encoderOutput.clear();
+		}
+	}
+
+	/**
+	 * The EncodingWriter encodes the chars written to it into the reused encoder output buffer
+	 */
+	private class EncodingWriter extends Writer {
+
+		EncodingWriter() {
+			super();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			CharBuffer input = Transcoder.this.encoderInput;
+			while (len > 0) {
+				// the input buffer may still hold the high surrogate of a pair split across writes
+				int count = Math.min(len, input.remaining());
+				input.put(cbuf, off, count);
+				off += count;
+				len -= count;
+				input.flip();
+				encode(false);
+				input.compact();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeEncoded();
+		}
+
+		@Override
+		public void close() {
+			// the transcoder is closed by the merge writer
+		}
+	}
+
+	/**
+	 * This detects the charset of a file from the byte order mark at its start
+	 * @param head The first bytes of the file
+	 * @param length The number of bytes read, {@link #MAX_BOM_LENGTH} unless the file is shorter
+	 * @return The charset of the byte order mark or null if the file does not start with one
+	 */
+	static Charset detectCharset(byte[] head, int length) {
+		if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+			return UTF_8;
+		}
+		if (length >= 4 && head[0] == 0 && head[1] == 0 && (head[2] & 0xFF) == 0xFE && (head[3] & 0xFF) == 0xFF) {
+			return UTF_32BE;
+		}
+		if (length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+			// a UTF-32 little endian mark starts with the UTF-16 one
+			return length >= 4 && head[2] == 0 && head[3] == 0 ? UTF_32LE : UTF_16LE;
+		}
+		if (length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+			return UTF_16BE;
+		}
+		return null;
+	}
+
+	/**
+	 * This gets whether the encoder of the given charset writes a byte order mark before the first char it encodes,
+	 * as the UTF-16 encoder does. Files can not be appended to a target file in such a charset as raw bytes as each
+	 * file and separator would then carry its own byte order mark rather than there being one at the start of the target.
+	 * @param charset The charset of the target file
+	 * @return True if the encoder writes a byte order mark
+	 */
+	static boolean writesByteOrderMark(Charset charset) {
+		return getByteOrderMarkLength(charset) > 0;
+	}
+
+	/**
+	 * This gets the length of the byte order mark the encoder of the given charset writes before the first char it encodes
+	 * @param charset The charset of the target file
+	 * @return The number of bytes of the byte order mark, 0 if the encoder does not write one
+	 */
+	static int getByteOrderMarkLength(Charset charset) {
+		if (!charset.canEncode()) {
+			return 0;
+		}
+		try {
+			int one = charset.newEncoder().encode(CharBuffer.wrap("a")).remaining();
+			int two = charset.newEncoder().encode(CharBuffer.wrap("aa")).remaining();
+			return Math.max(0, one * 2 - two);
+		} catch (CharacterCodingException cce) {
+			return 0;
+		}
+	}
+
+	/**
+	 * This gets the length of the byte order mark of the given charset as detected by {@link #detectCharset(byte[], int)}
+	 * @param charset The detected charset
+	 * @return The number of bytes of the byte order mark
+	 */
+	static int getBomLength(Charset charset) {
+		if (UTF_8.equals(charset)) {
+			return 3;
+		}
+		return UTF_16BE.equals(charset) || UTF_16LE.equals(charset) ? 2 : 4;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * The TransformChain passes the content of each appended file through a list of transforms in order, the output
+ * of each transform is written straight into the next one and the output of the last one into the target writer.
+ * @version $Id$
+ * @author conorroche
+ */
+class TransformChain {
+
+	private final ContentTransform[] transforms;
+	// the writer each transform writes to, the next stage or the target writer for the last transform
+	private final Writer[] outputs;
+	// the writer that passes what is written to it through the whole chain
+	private final Writer input;
+
+	/**
+	 * This creates a TransformChain
+	 * @param transforms The transforms in the order they are applied, there must be at least one
+	 * @param target The writer the transformed content is written to
+	 */
+	TransformChain(List<ContentTransform> transforms, Writer target) {
+		this.transforms = transforms.toArray(new ContentTransform[transforms.size()]);
+		this.outputs = new Writer[this.transforms.length];
+		this.outputs[this.outputs.length - 1] = target;
+		for (int i = this.transforms.length - 2; i >= 0; i--) {
+			this.outputs[i] = new Stage(this.transforms[i + 1], this.outputs[i + 1]);
+		}
+		this.input = new Stage(this.transforms[0], this.outputs[0]);
+	}
+
+	/**
+	 * This gets a writer that passes the chars written to it through the chain the same as {@link #write(char[], int, int)}
+	 * @return The writer, closing it has no effect
+	 */
+	Writer asWriter() {
+		return this.input;
+	}
+
+	/**
+	 * This passes the next chunk of the content of the current file through the chain
+	 * @param chars The buffer holding the chunk
+	 * @param offset The offset of the chunk in the buffer
+	 * @param length The length of the chunk
+	 * @throws IOException If the transformed content could not be written
+	 */
+	void write(char[] chars, int offset, int length) throws IOException {
+		this.transforms[0].transform(chars, offset, length, this.outputs[0]);
+	}
+
+	/**
+	 * This finishes the current file, each transform is finished in order so anything it held back passes
+	 * through the rest of the chain before the following transform is finished
+	 * @throws IOException If the transformed content could not be written
+	 */
+	void finish() throws IOException {
+		for (int i = 0; i < this.transforms.length; i++) {
+			this.transforms[i].finish(this.outputs[i]);
+		}
+	}
+
+	/**
+	 * The Stage adapts a transform to the writer that the transform before it writes to
+	 */
+	private static class Stage extends Writer {
+
+		private final ContentTransform transform;
+		private final Writer out;
+
+		Stage(ContentTransform transform, Writer out) {
+			this.transform = transform;
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			this.transform.transform(cbuf, off, len, this.out);
+		}
+
+		@Override
+		public void flush() {
+			// nothing is buffered between stages
+		}
+
+		@Override
+		public void close() {
+			// the target writer is closed by the merge writer
+		}
+	}
+
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Goal which merges the configured files and then watches the source directories of the merges, merging the
+ * target files affected by each change again until the build is stopped. The files found by the first scan are
+ * kept up to date from the watch events, only a source directory a file or directory was added to is scanned again
+ * so the new files are merged in the same order as a full scan would find them. Directories that can not hold files
+ * to merge, such as excluded ones, are not watched.
+ * @goal watch
+ * @requiresProject
+ */
+public class WatchMojo extends MergeMojo {
+
+	/**
+	 * The number of milliseconds to wait after a change for further changes before merging the affected target files
+	 * @parameter expression="${merge.watchDebounce}" default-value="500"
+	 */
+	private long watchDebounce;
+
+	private WatchService watcher;
+	private final Map<WatchKey, Path> watchedDirs = new HashMap<WatchKey, Path>();
+	private final Set<Path> registeredDirs = new LinkedHashSet<Path>();
+
+	/**
+	 * @see org.apache.maven.plugin.AbstractMojo#execute()
+	 */
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		Map<File, List<MergeContext>> targetMerges = buildContexts();
+
+		startIoPool();
+		try {
+			// do the initial merge which also scans the source directories of each merge
+			List<List<List<MergeContext>>> levels = orderByDependencies(targetMerges.values());
+			processLevels(levels);
+
+			try {
+				this.watcher = FileSystems.getDefault().newWatchService();
+			} catch (IOException ioe) {
+				throw new MojoExecutionException("Failed to create the watch service", ioe);
+			}
+			try {
+				for (List<MergeContext> group : targetMerges.values()) {
+					for (MergeContext context : group) {
+						for (File scanDir : context.scanDirs) {
+							register(scanDir.toPath(), targetMerges);
+						}
+					}
+				}
+				getLog().info("Watching: " + this.registeredDirs.size() + " directories for changes, press Ctrl+C to stop...");
+				watch(targetMerges, levels);
+			} finally {
+				try {
+					this.watcher.close();
+				} catch (IOException ioe) {
+					// ignore, nothing more is being watched
+				}
+				this.watcher = null;
+			}
+		} finally {
+			stopIoPool();
+		}
+	}
+
+	/**
+	 * This waits for changes and merges the affected target files again until the thread is interrupted
+	 * @param targetMerges The contexts of the merges grouped by target file
+	 * @param levels The groups of merges in the order they are to be processed so merges of target files written by
+	 * other merges see their new content
+	 */
+	private void watch(Map<File, List<MergeContext>> targetMerges, List<List<List<MergeContext>>> levels) {
+		while (!Thread.currentThread().isInterrupted()) {
+			Set<MergeContext> affected = new LinkedHashSet<MergeContext>();
+			Map<MergeContext, Set<Integer>> addedTo = new HashMap<MergeContext, Set<Integer>>();
+			boolean overflow;
+			try {
+				// wait for a change and then until no more changes arrive within the debounce period
+				WatchKey key = this.watcher.take();
+				overflow = handleEvents(key, targetMerges, affected, addedTo);
+				while ((key = this.watcher.poll(this.watchDebounce, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= handleEvents(key, targetMerges, affected, addedTo);
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			// merge the affected targets in dependency order, rescanning everything if events were lost
+			for (List<List<MergeContext>> level : levels) {
+				for (List<MergeContext> group : level) {
+					for (MergeContext context : group) {
+						if (overflow || affected.contains(context)) {
+							try {
+								processMerge(context, overflow || !rescan(context, addedTo.get(context)));
+							} catch (MojoExecutionException mee) {
+								getLog().error(mee.getMessage(), mee.getCause());
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This scans the given source directories of a merge again after files were added to them, the new files then
+	 * have the same position in the walk order as a full scan would give them
+	 * @param context The merge context
+	 * @param dirIndexes The indexes of the source directories files were added to, may be null
+	 * @return True if the directories were scanned, false if one failed and all of them need to be scanned again
+	 */
+	private boolean rescan(MergeContext context, Set<Integer> dirIndexes) {
+		if (dirIndexes != null) {
+			for (Integer i : dirIndexes) {
+				File scanDir = context.scanDirs.get(i.intValue());
+				try {
+					context.matchingFiles.set(i.intValue(), getFiles(context.scanner, scanDir));
+				} catch (IOException ioe) {
+					getLog().warn("Failed to scan the directory: " + scanDir.getAbsolutePath() + ", the source directories will be scanned again", ioe);
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * This applies the events of the given key to the files found for each merge
+	 * @param key The signalled key
+	 * @param targetMerges The contexts of the merges grouped by target file
+	 * @param affected The contexts whose target files need to be merged again
+	 * @param addedTo The indexes of the source directories of each merge that files were added to
+	 * @return True if events were lost and the source directories need to be scanned again
+	 */
+	private boolean handleEvents(WatchKey key, Map<File, List<MergeContext>> targetMerges, Set<MergeContext> affected,
+			Map<MergeContext, Set<Integer>> addedTo) {
+		Path dir = this.watchedDirs.get(key);
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				overflow = true;
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				register(path, targetMerges);
+			}
+			for (List<MergeContext> group : targetMerges.values()) {
+				for (MergeContext context : group) {
+					Set<Integer> dirIndexes = addedTo.get(context);
+					if (dirIndexes == null) {
+						dirIndexes = new HashSet<Integer>();
+					}
+					if (applyEvent(context, event.kind(), path, dirIndexes)) {
+						affected.add(context);
+					}
+					if (!dirIndexes.isEmpty()) {
+						addedTo.put(context, dirIndexes);
+					}
+				}
+			}
+		}
+		if (!key.reset()) {
+			this.watchedDirs.remove(key);
+			this.registeredDirs.remove(dir);
+		}
+		return overflow;
+	}
+
+	/**
+	 * This applies a single event to the files found for the given merge, deleted files are removed from the found
+	 * files while the source directories that files or directories were added to are recorded to be scanned again
+	 * @param context The merge context
+	 * @param kind The kind of event
+	 * @param path The path that changed
+	 * @param addedTo The indexes of the source directories of the merge that files were added to
+	 * @return True if the target file of the merge needs to be merged again
+	 */
+	private boolean applyEvent(MergeContext context, WatchEvent.Kind<?> kind, Path path, Set<Integer> addedTo) {
+		if (isMergeOutput(context.merge, path.toFile())) {
+			return false;
+		}
+		boolean changed = false;
+		for (int i = 0; i < context.scanDirs.size(); i++) {
+			Path scanDir = context.scanDirs.get(i).toPath();
+			if (!path.startsWith(scanDir) || path.equals(scanDir)) {
+				continue;
+			}
+			List<File> files = context.matchingFiles.get(i);
+			File file = path.toFile();
+			if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+				// the path may have been a file or a directory
+				String dirPrefix = file.getPath() + File.separator;
+				for (Iterator<File> it = files.iterator(); it.hasNext();) {
+					File found = it.next();
+					if (found.equals(file) || found.getPath().startsWith(dirPrefix)) {
+						it.remove();
+						changed = true;
+					}
+				}
+			} else if (Files.isDirectory(path)) {
+				// files may have been added to the new directory before it was registered
+				if (kind == StandardWatchEventKinds.ENTRY_CREATE && context.scanner.couldHoldMatches(scanDir.relativize(path).toString())) {
+					addedTo.add(Integer.valueOf(i));
+					changed = true;
+				}
+			} else if (files.contains(file)) {
+				// a modified file, the manifest check decides whether the target is out of date
+				changed = true;
+			} else if (Files.isRegularFile(path) && context.scanner.isMatch(scanDir.relativize(path).toString())) {
+				addedTo.add(Integer.valueOf(i));
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * This registers the given directory and those of its sub directories that could hold files to merge with the watch service
+	 * @param dir The directory to register
+	 * @param targetMerges The contexts of the merges grouped by target file
+	 */
+	private void register(Path dir, final Map<File, List<MergeContext>> targetMerges) {
+		try {
+			Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path subDir, BasicFileAttributes attrs) throws IOException {
+					if (!isWatched(subDir, targetMerges)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					if (WatchMojo.this.registeredDirs.add(subDir)) {
+						WatchKey key = subDir.register(WatchMojo.this.watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+								StandardWatchEventKinds.ENTRY_MODIFY);
+						WatchMojo.this.watchedDirs.put(key, subDir);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					if (!(exc instanceof FileSystemLoopException)) {
+						getLog().warn("Failed to watch the directory: " + file + ", changes to it will not be merged", exc);
+					}
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+			});
+		} catch (IOException ioe) {
+			getLog().warn("Failed to watch the directory: " + dir + ", changes to it will not be merged", ioe);
+		}
+	}
+
+	/**
+	 * This gets whether the given directory is a source directory of a merge or could hold files to merge of a merge
+	 * it is below, using the same check the scan uses to skip directories
+	 * @param dir The directory
+	 * @param targetMerges The contexts of the merges grouped by target file
+	 * @return True if the directory should be watched
+	 */
+	private static boolean isWatched(Path dir, Map<File, List<MergeContext>> targetMerges) {
+		for (List<MergeContext> group : targetMerges.values()) {
+			for (MergeContext context : group) {
+				for (File scanDir : context.scanDirs) {
+					Path scanPath = scanDir.toPath();
+					if (dir.equals(scanPath) || (dir.startsWith(scanPath) && context.scanner.couldHoldMatches(scanPath.relativize(dir).toString()))) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The ContentTransformsTest checks the built in content transforms, each content is passed through in chunks of
+ * several sizes as the state of a transform has to carry over from one chunk to the next
+ * @version $Id$
+ * @author conorroche
+ */
+public class ContentTransformsTest extends TestCase {
+
+	private static final int[] CHUNK_SIZES = { 1, 2, 3, 7, Integer.MAX_VALUE };
+
+	/**
+	 * This tests that line comments are removed up to the line ending
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlLineComments() throws IOException {
+		assertStripped("select 1; \nselect 2;\r\n", "select 1; -- first\nselect 2;-- second\r\n");
+		assertStripped("select 1;", "select 1;-- no line ending");
+		assertStripped("\n", "--\n");
+	}
+
+	/**
+	 * This tests that block comments are removed and replaced with a space only when they would join two tokens
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlBlockComments() throws IOException {
+		assertStripped("select 1", "select/* c */1");
+		assertStripped("select  1", "select /* c */ 1");
+		assertStripped("1 2", "1/* a ** b */2");
+		assertStripped("x", "/* multi\nline -- comment */x");
+		assertStripped("a", "a/* unterminated");
+	}
+
+	/**
+	 * This tests that comment markers inside quoted strings and identifiers are kept
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlKeepsQuotedContent() throws IOException {
+		assertUnchanged("select '--not a comment' from t;");
+		assertUnchanged("select '/* not a comment */' from t;");
+		assertUnchanged("select \"a--b\", \"c/*d*/\" from t;");
+		// quotes are escaped by doubling them
+		assertStripped("select 'it''s -- here' from t; ", "select 'it''s -- here' from t; -- gone");
+		assertStripped("select \"a\"\"--b\" ", "select \"a\"\"--b\" /* gone */");
+	}
+
+	/**
+	 * This tests that optimizer hints and conditional comments are kept
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlKeepsHints() throws IOException {
+		assertUnchanged("select /*+ INDEX(t idx) */ * from t");
+		assertUnchanged("/*!40101 SET NAMES utf8 */;");
+		assertUnchanged("/*+ a ** b */x");
+	}
+
+	/**
+	 * This tests that dashes and slashes that do not start a comment are kept, including at the end of the content
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlKeepsOperators() throws IOException {
+		assertUnchanged("select a - b / c from t");
+		assertUnchanged("select -1, 4/2 -");
+		assertUnchanged("select 1 /");
+	}
+
+	/**
+	 * This tests that the state of the transform is reset between files so an unterminated string does not carry over
+	 * @throws IOException If the content could not be transformed
+	 */
+	public void testStripSqlResetsBetweenFiles() throws IOException {
+		ContentTransform transform = new ContentTransforms.StripSqlComments();
+		assertEquals("select 'open", transform(transform, "select 'open", Integer.MAX_VALUE));
+		assertEquals("\nx", transform(transform, "-- comment\nx", Integer.MAX_VALUE));
+	}
+
+	/**
+	 * This tests the built in transforms are created from their names in order
+	 */
+	public void testCreate() {
+		List<ContentTransform> transforms = ContentTransforms.create(new String[] { " stripBom", "", "CRLF", "stripSqlComments", "trimTrailingWhitespace" });
+		assertEquals(4, transforms.size());
+		assertTrue(transforms.get(0) instanceof ContentTransforms.StripBom);
+		assertTrue(transforms.get(1) instanceof ContentTransforms.LineEndings);
+		assertTrue(transforms.get(2) instanceof ContentTransforms.StripSqlComments);
+		assertTrue(transforms.get(3) instanceof ContentTransforms.TrimTrailingWhitespace);
+		assertTrue(ContentTransforms.create(null).isEmpty());
+		try {
+			ContentTransforms.create(new String[] { "croche.maven.plugin.merge.NoSuchTransform" });
+			fail("An unknown transform should not be created");
+		} catch (IllegalArgumentException iae) {
+			// expected
+		}
+	}
+
+	private static void assertUnchanged(String content) throws IOException {
+		assertStripped(content, content);
+	}
+
+	private static void assertStripped(String expected, String content) throws IOException {
+		for (int chunkSize : CHUNK_SIZES) {
+			assertEquals("chunk size: " + chunkSize, expected, transform(new ContentTransforms.StripSqlComments(), content, chunkSize));
+		}
+	}
+
+	/**
+	 * This passes the given content through the given transform as one file
+	 * @param transform The transform
+	 * @param content The content of the file
+	 * @param chunkSize The number of chars passed to the transform at a time
+	 * @return The transformed content
+	 * @throws IOException If the content could not be transformed
+	 */
+	private static String transform(ContentTransform transform, String content, int chunkSize) throws IOException {
+		StringWriter out = new StringWriter();
+		char[] chars = content.toCharArray();
+		int offset = 0;
+		while (offset < chars.length) {
+			int length = Math.min(chunkSize, chars.length - offset);
+			transform.transform(chars, offset, length, out);
+			offset += length;
+		}
+		transform.finish(out);
+		return out.toString();
+	}
+
+}
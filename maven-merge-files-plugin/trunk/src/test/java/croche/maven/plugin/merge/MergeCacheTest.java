@@ -0,0 +1,125 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The MergeCacheTest checks that target files are restored from the merge cache and that the files of a cached target
+ * file are only hashed again once its manifest shows they changed
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeCacheTest extends TestCase {
+
+	private File dir;
+	private File sourceDir;
+	private File[] files;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("merge-cache-test");
+		this.sourceDir = new File(this.dir, "src");
+		this.files = new File[] { new File(this.sourceDir, "1-create.sql"), new File(this.sourceDir, "2-insert.sql") };
+		FileUtils.writeStringToFile(this.files[0], "create table a;\n", "UTF-8");
+		FileUtils.writeStringToFile(this.files[1], "insert into a values (1);\n", "UTF-8");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that a target file merged once is restored from the cache using the key recorded in its manifest
+	 * @throws Exception If the merges failed
+	 */
+	public void testTargetRestoredFromCache() throws Exception {
+		Merge merge = createMerge();
+		MergeMojo mojo = createMojo(merge);
+		mojo.execute();
+		File target = merge.getTargetFile();
+		String expected = "create table a;\ninsert into a values (1);\n";
+		assertEquals(expected, FileUtils.readFileToString(target, "UTF-8"));
+		// the manifest records the key so the files need not be hashed again
+		MergeManifest manifest = MergeManifest.read(target);
+		assertNotNull(manifest);
+		String key = MergeManifest.build(merge, Arrays.asList(this.files)).getUnchangedCacheKey(manifest);
+		assertNotNull(key);
+		assertTrue(new File(new File(this.dir, "cache"), key + ".data").isFile());
+
+		target.delete();
+		mojo.execute();
+		assertEquals(expected, FileUtils.readFileToString(target, "UTF-8"));
+
+		// a changed file gets a new key and the target file is merged again
+		FileUtils.writeStringToFile(this.files[1], "insert into a values (2);\n", "UTF-8");
+		mojo.execute();
+		assertEquals("create table a;\ninsert into a values (2);\n", FileUtils.readFileToString(target, "UTF-8"));
+		assertFalse(key.equals(MergeManifest.build(merge, Arrays.asList(this.files)).getUnchangedCacheKey(MergeManifest.read(target))));
+	}
+
+	/**
+	 * This tests that the cache key recorded in a manifest is only reused while the files and configuration are the same
+	 * @throws Exception If a manifest could not be built
+	 */
+	public void testUnchangedCacheKey() throws Exception {
+		Merge merge = createMerge();
+		List<File> files = Arrays.asList(this.files);
+		File target = merge.getTargetFile();
+		FileUtils.writeStringToFile(target, "merged", "UTF-8");
+		MergeManifest written = MergeManifest.build(merge, files);
+		written.setCacheKey("key");
+		written.write(target);
+		MergeManifest previous = MergeManifest.read(target);
+
+		assertEquals("key", MergeManifest.build(merge, files).getUnchangedCacheKey(previous));
+		assertNull(MergeManifest.build(merge, files).getUnchangedCacheKey(null));
+		// the target file itself does not matter, only what it is merged from
+		target.delete();
+		assertEquals("key", MergeManifest.build(merge, files).getUnchangedCacheKey(previous));
+
+		assertNull(MergeManifest.build(merge, files.subList(0, 1)).getUnchangedCacheKey(previous));
+		merge.setDetectEncoding(true);
+		assertNull(MergeManifest.build(merge, files).getUnchangedCacheKey(previous));
+		merge.setDetectEncoding(false);
+		assertTrue(this.files[0].setLastModified(this.files[0].lastModified() - 10000));
+		assertNull(MergeManifest.build(merge, files).getUnchangedCacheKey(previous));
+	}
+
+	private Merge createMerge() {
+		Merge merge = new Merge();
+		MergeMojoTest.set(merge, "targetFile", new File(this.dir, "all.sql"));
+		MergeMojoTest.set(merge, "sourceDirs", new File[] { this.sourceDir });
+		MergeMojoTest.set(merge, "nameContainsOrderings", new String[] { "1-", "2-" });
+		return merge;
+	}
+
+	private MergeMojo createMojo(Merge merge) {
+		MergeMojo mojo = new MergeMojo();
+		MergeMojoTest.set(mojo, "merges", new Merge[] { merge });
+		MergeMojoTest.set(mojo, "threads", Integer.valueOf(1));
+		MergeMojoTest.set(mojo, "scanThreads", Integer.valueOf(1));
+		MergeMojoTest.set(mojo, "cache", Boolean.TRUE);
+		MergeMojoTest.set(mojo, "cacheDir", new File(this.dir, "cache"));
+		MergeMojoTest.set(mojo, "cacheMaxSize", Long.valueOf(1024 * 1024));
+		return mojo;
+	}
+
+}
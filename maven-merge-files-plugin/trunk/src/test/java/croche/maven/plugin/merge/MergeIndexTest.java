@@ -0,0 +1,122 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergeIndexTest checks that the byte ranges recorded in the index of a target file hold the content of each merged file
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeIndexTest extends TestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset UTF_16 = Charset.forName("UTF-16");
+	private static final String[] CONTENTS = { "create table a;\n", "", "insert into a values ('caf\u00e9');\n" };
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("merge-index-test");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that the ranges of files appended as raw bytes after a separator hold just their content
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testRangesHoldContent() throws IOException {
+		assertRanges(UTF_8, "-- #{file.name}\\n");
+	}
+
+	/**
+	 * This tests that the ranges of files transcoded into a charset whose encoder writes a byte order mark hold just
+	 * their content when there is no separator, the byte order mark at the start of the target file is not part of the
+	 * first file
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testRangesStartAfterByteOrderMark() throws IOException {
+		assertRanges(UTF_16, null);
+		assertRanges(UTF_16, "-- #{file.name}\\n");
+	}
+
+	/**
+	 * This tests that the index file of a relative target file lives next to it like the manifest does
+	 */
+	public void testIndexFileIsAbsolute() {
+		File targetFile = new File("target", "all.sql");
+		assertEquals(new File(targetFile.getAbsolutePath() + ".merge-index"), MergeIndex.getIndexFile(targetFile));
+		assertTrue(MergeIndex.getIndexFile(targetFile).isAbsolute());
+		assertEquals(MergeManifest.getManifestFile(targetFile).getParentFile(), MergeIndex.getIndexFile(targetFile).getParentFile());
+	}
+
+	private void assertRanges(Charset targetCharset, String separator) throws IOException {
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		for (int i = 0; i < CONTENTS.length; i++) {
+			File file = new File(this.dir, "script-" + i + ".sql");
+			FileUtils.writeStringToFile(file, CONTENTS[i], "UTF-8");
+			entries.add(new MergeEntry(file, null, this.dir));
+		}
+		// an empty file first leaves the byte order mark to be written by the next file
+		entries.add(0, entries.get(1));
+
+		File target = new File(this.dir, "all.sql");
+		target.delete();
+		MergeIndex index = new MergeIndex();
+		MergeWriter writer = new MergeWriter(target, UTF_8, targetCharset, Compression.NONE, SeparatorTemplate.compile(separator),
+				Collections.<ContentTransform> emptyList(), false, false);
+		writer.setIndex(index);
+		try {
+			for (MergeEntry entry : entries) {
+				writer.append(entry);
+			}
+		} finally {
+			writer.close();
+		}
+		index.write(target);
+
+		MergeIndexReader reader = new MergeIndexReader(target);
+		try {
+			assertEquals(entries.size(), reader.size());
+			for (int i = 0; i < entries.size(); i++) {
+				String content = FileUtils.readFileToString(entries.get(i).file, "UTF-8");
+				ByteBuffer section = reader.getSection(i);
+				byte[] bytes = new byte[section.remaining()];
+				section.get(bytes);
+				// the sections are encoded without a byte order mark in the byte order the encoder chose
+				assertEquals(content, new String(bytes, targetCharset == UTF_16 ? Charset.forName("UTF-16BE") : targetCharset));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The MergeManifestTest checks that the MergeManifest tells when a target file has to be merged again
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeManifestTest extends TestCase {
+
+	private File dir;
+	private File target;
+	private File first;
+	private File second;
+	private Merge merge;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("merge-manifest-test");
+		this.target = new File(this.dir, "all.sql");
+		this.first = new File(this.dir, "first.sql");
+		this.second = new File(this.dir, "second.sql");
+		FileUtils.writeStringToFile(this.first, "create table a;\n", "UTF-8");
+		FileUtils.writeStringToFile(this.second, "insert into a values (1);\n", "UTF-8");
+		this.merge = new Merge();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that a target file is merged when it or its manifest does not exist
+	 * @throws IOException If the manifest could not be built
+	 */
+	public void testMissingTargetOrManifest() throws IOException {
+		MergeManifest manifest = MergeManifest.build(this.merge, getFiles());
+		assertEquals("the target file does not exist", manifest.getChangeReason(null, this.target));
+		FileUtils.writeStringToFile(this.target, "merged", "UTF-8");
+		assertEquals("there is no merge manifest for it", manifest.getChangeReason(null, this.target));
+		assertNull(MergeManifest.read(this.target));
+	}
+
+	/**
+	 * This tests that a target file is up to date when nothing changed since its manifest was written
+	 * @throws IOException If the manifest could not be written or read
+	 */
+	public void testUpToDate() throws IOException {
+		MergeManifest previous = writeManifest();
+		assertNull(MergeManifest.build(this.merge, getFiles()).getChangeReason(previous, this.target));
+	}
+
+	/**
+	 * This tests that a target file is merged again when the files, their order or the configuration changed
+	 * @throws IOException If the manifest could not be written or read
+	 */
+	public void testChangedInputs() throws IOException {
+		MergeManifest previous = writeManifest();
+		assertTrue(MergeManifest.build(this.merge, Arrays.asList(this.second, this.first)).getChangeReason(previous, this.target)
+				.startsWith("the files to merge or their order changed"));
+		assertTrue(MergeManifest.build(this.merge, Arrays.asList(this.first)).getChangeReason(previous, this.target)
+				.startsWith("the number of files to merge changed"));
+
+		Merge changed = new Merge();
+		changed.setDuplicatesAllowed(true);
+		assertEquals("the merge configuration changed", MergeManifest.build(changed, getFiles()).getChangeReason(previous, this.target));
+
+		FileUtils.writeStringToFile(this.second, "insert into a values (1), (2);\n", "UTF-8");
+		assertEquals("the file: " + this.second.getAbsolutePath() + " was modified",
+				MergeManifest.build(this.merge, getFiles()).getChangeReason(previous, this.target));
+	}
+
+	/**
+	 * This tests that a target file is merged again when it was changed after it was merged
+	 * @throws IOException If the manifest could not be written or read
+	 */
+	public void testModifiedTarget() throws IOException {
+		MergeManifest previous = writeManifest();
+		FileUtils.writeStringToFile(this.target, "edited by hand", "UTF-8");
+		assertEquals("the target file was modified since it was merged",
+				MergeManifest.build(this.merge, getFiles()).getChangeReason(previous, this.target));
+	}
+
+	/**
+	 * This tests that a change to the content of a file that keeps its size and modified time is only noticed when the
+	 * content is compared
+	 * @throws IOException If the manifest could not be written or read
+	 */
+	public void testContentChangeOnlySeenWhenComparingContent() throws IOException {
+		this.merge.setCompareContent(true);
+		MergeManifest previous = writeManifest();
+		long modified = this.first.lastModified();
+		FileUtils.writeStringToFile(this.first, "create table b;\n", "UTF-8");
+		assertTrue(this.first.setLastModified(modified));
+		assertEquals("the content of the file: " + this.first.getAbsolutePath() + " changed",
+				MergeManifest.build(this.merge, getFiles()).getChangeReason(previous, this.target));
+
+		Merge withoutContent = new Merge();
+		MergeManifest previousWithoutContent = MergeManifest.build(withoutContent, getFiles());
+		previousWithoutContent.write(this.target);
+		previousWithoutContent = MergeManifest.read(this.target);
+		FileUtils.writeStringToFile(this.first, "create table c;\n", "UTF-8");
+		assertTrue(this.first.setLastModified(modified));
+		assertNull(MergeManifest.build(withoutContent, getFiles()).getChangeReason(previousWithoutContent, this.target));
+	}
+
+	/**
+	 * This writes the target file and its manifest and reads the manifest back
+	 * @return The manifest as read back
+	 * @throws IOException If the manifest could not be written or read
+	 */
+	private MergeManifest writeManifest() throws IOException {
+		FileUtils.writeStringToFile(this.target, "merged", "UTF-8");
+		MergeManifest.build(this.merge, getFiles()).write(this.target);
+		return MergeManifest.read(this.target);
+	}
+
+	private List<File> getFiles() {
+		return Arrays.asList(this.first, this.second);
+	}
+
+}
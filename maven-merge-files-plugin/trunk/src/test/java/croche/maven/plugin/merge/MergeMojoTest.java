@@ -0,0 +1,196 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * The MergeMojoTest checks that merges reading the target files of other merges see the content written by them
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeMojoTest extends TestCase {
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("merge-mojo-test");
+		FileUtils.writeStringToFile(new File(this.dir, "src/a/1-create.sql"), "create table a;\n", "UTF-8");
+		FileUtils.writeStringToFile(new File(this.dir, "src/a/2-insert.sql"), "insert into a values (1);\n", "UTF-8");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that a chain of merges each reading the target file of the next one configured writes every target
+	 * file from the content of the one before it on a clean build, whether the merges run on one thread or several
+	 * @throws Exception If the merges failed
+	 */
+	public void testChainedMerges() throws Exception {
+		for (int threads : new int[] { 1, 4 }) {
+			// the target directories exist but are empty as they would be after a clean
+			for (String name : new String[] { "out", "all" }) {
+				FileUtils.deleteDirectory(new File(this.dir, name));
+				FileUtils.forceMkdir(new File(this.dir, name));
+			}
+			MergeMojo mojo = createMojo(threads, createMerge("all/top.sql", "all"), createMerge("all/all.sql", "out"),
+					order(createMerge("out/a.sql", "src/a"), "1-", "2-"));
+			mojo.execute();
+
+			String expected = "create table a;\ninsert into a values (1);\n";
+			assertEquals(expected, FileUtils.readFileToString(new File(this.dir, "out/a.sql"), "UTF-8"));
+			assertEquals(expected, FileUtils.readFileToString(new File(this.dir, "all/all.sql"), "UTF-8"));
+			assertEquals(expected, FileUtils.readFileToString(new File(this.dir, "all/top.sql"), "UTF-8"));
+		}
+	}
+
+	/**
+	 * This tests that merges are only put in a later level when they read the target file of another merge
+	 * through their source directories and patterns
+	 * @throws Exception If the mojo could not be configured
+	 */
+	public void testOrderByDependencies() throws Exception {
+		Merge a = createMerge("out/a.sql", "src/a");
+		Merge b = createMerge("out/b.sql", "src/b");
+		Merge all = createMerge("all.sql", "out");
+		Merge data = createMerge("data.sql", "out", "**/*.dat");
+		MergeMojo mojo = createMojo(1, all, a, b, data);
+		List<List<List<MergeContext>>> levels = mojo.orderByDependencies(mojo.buildContexts().values());
+		assertEquals(2, levels.size());
+		assertEquals(targetFiles(a, b, data), targetFiles(levels.get(0)));
+		assertEquals(targetFiles(all), targetFiles(levels.get(1)));
+
+		// merges reading each other's target files are processed one after another in configuration order
+		Merge first = createMerge("first/1.sql", "second");
+		Merge second = createMerge("second/2.sql", "first");
+		mojo = createMojo(1, first, second, a);
+		levels = mojo.orderByDependencies(mojo.buildContexts().values());
+		assertEquals(3, levels.size());
+		assertEquals(targetFiles(a), targetFiles(levels.get(0)));
+		assertEquals(targetFiles(first), targetFiles(levels.get(1)));
+		assertEquals(targetFiles(second), targetFiles(levels.get(2)));
+	}
+
+	/**
+	 * This tests that a merge whose target file is in its own source directory is not merged into itself
+	 * @throws MojoExecutionException If the merge failed
+	 * @throws MojoFailureException If the merge failed
+	 * @throws IOException If the target file could not be read
+	 */
+	public void testTargetInOwnSourceDir() throws MojoExecutionException, MojoFailureException, IOException {
+		MergeMojo mojo = createMojo(1, order(createMerge("src/a/3-all.sql", "src/a"), "1-", "2-", "3-"));
+		mojo.execute();
+		mojo.execute();
+		assertEquals("create table a;\ninsert into a values (1);\n", FileUtils.readFileToString(new File(this.dir, "src/a/3-all.sql"), "UTF-8"));
+	}
+
+	/**
+	 * This tests that the manifests, indexes and parts written next to the target files of other merges are not
+	 * merged while their target files are
+	 * @throws Exception If the merges failed
+	 */
+	public void testOtherMergesSidecarsNotMerged() throws Exception {
+		FileUtils.forceMkdir(new File(this.dir, "out"));
+		Merge a = order(createMerge("out/a.sql", "src/a"), "1-", "2-");
+		a.setIncremental(true);
+		a.setWriteIndex(true);
+		Merge parts = order(createMerge("out/parts.sql", "src/a"), "1-", "2-");
+		set(parts, "maxTargetSize", Long.valueOf(20));
+		Merge all = createMerge("all.sql", "out");
+		MergeMojo mojo = createMojo(1, all, a, parts);
+		mojo.execute();
+
+		File out = new File(this.dir, "out");
+		assertTrue(new File(out, "a.sql.merge-manifest").exists());
+		assertTrue(new File(out, "a.sql.merge-index").exists());
+		assertTrue(new File(out, "parts-0002.sql").exists());
+		assertEquals(FileUtils.readFileToString(new File(out, "a.sql"), "UTF-8"), FileUtils.readFileToString(new File(this.dir, "all.sql"), "UTF-8"));
+
+		assertFalse(mojo.isMergeOutput(all, new File(out, "a.sql")));
+		assertTrue(mojo.isMergeOutput(all, new File(out, "other.sql.merge-manifest")));
+		assertTrue(mojo.isMergeOutput(all, new File(out, "parts.sql.parts")));
+		assertTrue(mojo.isMergeOutput(all, new File(out, "parts-0001.sql")));
+		assertTrue(mojo.isMergeOutput(all, new File(out, "parts-0001.sql.merge-index")));
+		assertTrue(mojo.isMergeOutput(a, new File(out, "a.sql")));
+	}
+
+	private Merge createMerge(String targetFile, String sourceDir, String... includes) {
+		Merge merge = new Merge();
+		set(merge, "targetFile", new File(this.dir, targetFile));
+		set(merge, "sourceDirs", new File[] { new File(this.dir, sourceDir) });
+		if (includes.length > 0) {
+			set(merge, "includes", includes);
+		}
+		return merge;
+	}
+
+	private static Merge order(Merge merge, String... names) {
+		set(merge, "nameContainsOrderings", names);
+		return merge;
+	}
+
+	private static MergeMojo createMojo(int threads, Merge... merges) {
+		MergeMojo mojo = new MergeMojo();
+		set(mojo, "merges", merges);
+		set(mojo, "threads", Integer.valueOf(threads));
+		set(mojo, "scanThreads", Integer.valueOf(threads));
+		return mojo;
+	}
+
+	private static List<File> targetFiles(Merge... merges) {
+		List<File> files = new ArrayList<File>(merges.length);
+		for (Merge merge : merges) {
+			files.add(merge.getTargetFile());
+		}
+		return files;
+	}
+
+	private static List<File> targetFiles(List<List<MergeContext>> level) {
+		List<File> files = new ArrayList<File>(level.size());
+		for (List<MergeContext> group : level) {
+			files.add(group.get(0).merge.getTargetFile());
+		}
+		return files;
+	}
+
+	/**
+	 * This sets a field of a mojo or merge the way maven does when configuring the plugin
+	 * @param target The mojo or merge
+	 * @param name The name of the field
+	 * @param value The value to set
+	 */
+	static void set(Object target, String name, Object value) {
+		try {
+			Field field = target.getClass().getDeclaredField(name);
+			field.setAccessible(true);
+			field.set(target, value);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to set the field: " + name + " of: " + target.getClass().getName(), e);
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergePartsTest checks how the files of a merge are split into parts of a maximum size
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergePartsTest extends TestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("merge-parts-test");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that parts are only split at file boundaries and a file bigger than the maximum size gets a part of its own
+	 * @throws IOException If the files could not be written
+	 */
+	public void testSplitAtFileBoundaries() throws IOException {
+		List<MergeEntry> entries = createEntries(40, 40, 40, 150, 10, 60);
+		List<List<MergeEntry>> parts = MergeParts.split(entries, 100, null, UTF_8);
+		assertEquals(4, parts.size());
+		assertEquals(entries.subList(0, 2), parts.get(0));
+		assertEquals(entries.subList(2, 3), parts.get(1));
+		assertEquals(entries.subList(3, 4), parts.get(2));
+		assertEquals(entries.subList(4, 6), parts.get(3));
+	}
+
+	/**
+	 * This tests that the encoded size of the separator of each file counts towards the size of its part
+	 * @throws IOException If the files could not be written
+	 */
+	public void testSeparatorsCountTowardsThePartSize() throws IOException {
+		List<MergeEntry> entries = createEntries(30, 30, 30, 30);
+		assertEquals(2, MergeParts.split(entries, 70, null, UTF_8).size());
+		// each separator is: -- data\n which is 8 bytes so only one file fits in each part
+		SeparatorTemplate separator = SeparatorTemplate.compile("-- #{ordering.name}\\n", "ordering.name");
+		assertEquals(4, MergeParts.split(entries, 70, separator, UTF_8).size());
+		assertEquals(2, MergeParts.split(entries, 76, separator, UTF_8).size());
+	}
+
+	/**
+	 * This tests that there are no parts when there are no files
+	 */
+	public void testNoFilesNoParts() {
+		assertTrue(MergeParts.split(Collections.<MergeEntry> emptyList(), 100, null, UTF_8).isEmpty());
+	}
+
+	private List<MergeEntry> createEntries(int... sizes) throws IOException {
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		for (int i = 0; i < sizes.length; i++) {
+			File file = new File(this.dir, "script-" + i + ".sql");
+			FileUtils.writeByteArrayToFile(file, new byte[sizes[i]]);
+			entries.add(new MergeEntry(file, "data", this.dir));
+		}
+		return entries;
+	}
+
+}
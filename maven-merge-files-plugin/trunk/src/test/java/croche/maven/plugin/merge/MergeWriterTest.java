@@ -0,0 +1,252 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import croche.maven.shared.SeparatorTemplate;
+
+/**
+ * The MergeWriterTest checks that the target files written by the MergeWriter hold the same content whether the files
+ * are appended as raw bytes, copied from channel to channel or decoded and encoded again as the merge used to do
+ * @version $Id$
+ * @author conorroche
+ */
+public class MergeWriterTest extends TestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final String SEPARATOR = "-- #{file.name}\\n";
+	private static final String[] CONTENTS = { "insert into account values ('caf\u00e9');\n", "", "select 'Z\u00fcrich' from dual;\r\n-- done",
+			"a;" };
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = createTempDir("merge-writer-test");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that files appended as raw bytes match the files decoded and encoded again
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testByteLevelMatchesDecodedMerge() throws IOException {
+		List<MergeEntry> entries = writeSources(UTF_8, null);
+		File target = new File(this.dir, "all.sql");
+		MergeWriter writer = createWriter(target, UTF_8, UTF_8, Compression.NONE, false, false);
+		assertTrue(writer.isByteLevel());
+		for (MergeEntry entry : entries) {
+			assertEquals(0, writer.getTransferStart(entry.file));
+		}
+		append(writer, entries);
+		assertTrue(Arrays.equals(getExpected(entries).getBytes(UTF_8), FileUtils.readFileToByteArray(target)));
+	}
+
+	/**
+	 * This tests that files appended as raw bytes to a compressed target file match the files decoded and encoded again
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testCompressedByteLevelMatchesDecodedMerge() throws IOException {
+		List<MergeEntry> entries = writeSources(UTF_8, null);
+		File target = new File(this.dir, "all.sql.gz");
+		MergeWriter writer = createWriter(target, UTF_8, UTF_8, Compression.GZIP, false, false);
+		assertTrue(writer.isByteLevel());
+		assertEquals(-1, writer.getTransferStart(entries.get(0).file));
+		append(writer, entries);
+		assertTrue(Arrays.equals(getExpected(entries).getBytes(UTF_8), gunzip(target)));
+	}
+
+	/**
+	 * This tests that files transcoded into another charset match the files decoded and encoded again
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testTranscodedMatchesDecodedMerge() throws IOException {
+		List<MergeEntry> entries = writeSources(UTF_8, null);
+		File target = new File(this.dir, "all.sql");
+		MergeWriter writer = createWriter(target, UTF_8, ISO_8859_1, Compression.NONE, false, false);
+		assertFalse(writer.isByteLevel());
+		append(writer, entries);
+		assertTrue(Arrays.equals(getExpected(entries).getBytes(ISO_8859_1), FileUtils.readFileToByteArray(target)));
+	}
+
+	/**
+	 * This tests that a target file in a charset whose encoder writes a byte order mark only starts with one rather
+	 * than one for each file and separator
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testUtf16TargetHasOneByteOrderMark() throws IOException {
+		List<MergeEntry> entries = writeSources(UTF_8, null);
+		File target = new File(this.dir, "all.sql");
+		Charset utf16 = Charset.forName("UTF-16");
+		MergeWriter writer = createWriter(target, UTF_8, utf16, Compression.NONE, false, false);
+		assertFalse(writer.isByteLevel());
+		append(writer, entries);
+		assertTrue(Arrays.equals(getExpected(entries).getBytes(utf16), FileUtils.readFileToByteArray(target)));
+	}
+
+	/**
+	 * This tests that byte order marks are dropped and files with a byte order mark for another charset are transcoded
+	 * when charset detection is on while the other files are still appended as raw bytes
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testDetectedByteOrderMarksAreDropped() throws IOException {
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		entries.add(writeSource("bom-utf8.sql", CONTENTS[0], UTF_8, new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF }));
+		entries.add(writeSource("bom-utf16le.sql", CONTENTS[2], UTF_16LE, new byte[] { (byte) 0xFF, (byte) 0xFE }));
+		entries.add(writeSource("plain.sql", CONTENTS[0], UTF_8, null));
+		// shorter than the longest byte order mark
+		entries.add(writeSource("short.sql", CONTENTS[3], UTF_8, null));
+		entries.add(writeSource("empty.sql", CONTENTS[1], UTF_8, null));
+		File target = new File(this.dir, "all.sql");
+		MergeWriter writer = createWriter(target, UTF_8, UTF_8, Compression.NONE, true, false);
+		append(writer, entries);
+		String expected = "-- bom-utf8.sql\n" + CONTENTS[0] + "-- bom-utf16le.sql\n" + CONTENTS[2] + "-- plain.sql\n" + CONTENTS[0] + "-- short.sql\n"
+				+ CONTENTS[3] + "-- empty.sql\n";
+		assertEquals(expected, FileUtils.readFileToString(target, "UTF-8"));
+	}
+
+	/**
+	 * This tests that gzip compressed source files are appended as they are unless the merge asks for them to be
+	 * decompressed
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testCompressedSourcesOnlyDecompressedWhenAsked() throws IOException {
+		File source = new File(this.dir, "data.sql.gz");
+		OutputStream output = new GZIPOutputStream(FileUtils.openOutputStream(source));
+		try {
+			output.write(CONTENTS[0].getBytes(UTF_8));
+		} finally {
+			output.close();
+		}
+		List<MergeEntry> entries = Collections.singletonList(new MergeEntry(source, null, this.dir));
+
+		File asIs = new File(this.dir, "as-is.sql");
+		MergeWriter writer = createWriter(asIs, UTF_8, UTF_8, Compression.NONE, false, false);
+		assertEquals(0, writer.getTransferStart(source));
+		append(writer, entries);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write("-- data.sql.gz\n".getBytes(UTF_8));
+		expected.write(FileUtils.readFileToByteArray(source));
+		assertTrue(Arrays.equals(expected.toByteArray(), FileUtils.readFileToByteArray(asIs)));
+
+		File decompressed = new File(this.dir, "decompressed.sql");
+		writer = createWriter(decompressed, UTF_8, UTF_8, Compression.NONE, false, true);
+		assertEquals(-1, writer.getTransferStart(source));
+		append(writer, entries);
+		assertEquals("-- data.sql.gz\n" + CONTENTS[0], FileUtils.readFileToString(decompressed, "UTF-8"));
+	}
+
+	/**
+	 * This writes the test contents as source files in the given charset
+	 * @param charset The charset of the source files
+	 * @param bom The byte order mark to start each file with, may be null
+	 * @return The entries of the source files in order
+	 * @throws IOException If a file could not be written
+	 */
+	private List<MergeEntry> writeSources(Charset charset, byte[] bom) throws IOException {
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		for (int i = 0; i < CONTENTS.length; i++) {
+			entries.add(writeSource("script-" + i + ".sql", CONTENTS[i], charset, bom));
+		}
+		return entries;
+	}
+
+	private MergeEntry writeSource(String name, String content, Charset charset, byte[] bom) throws IOException {
+		File file = new File(this.dir, name);
+		OutputStream output = FileUtils.openOutputStream(file);
+		try {
+			if (bom != null) {
+				output.write(bom);
+			}
+			output.write(content.getBytes(charset));
+		} finally {
+			output.close();
+		}
+		return new MergeEntry(file, null, this.dir);
+	}
+
+	/**
+	 * This gets the content of the target file the way the merge used to build it, each separator followed by the
+	 * decoded content of its file
+	 * @param entries The merged entries
+	 * @return The expected content of the target file
+	 * @throws IOException If a file could not be read
+	 */
+	private static String getExpected(List<MergeEntry> entries) throws IOException {
+		StringBuilder expected = new StringBuilder();
+		for (MergeEntry entry : entries) {
+			expected.append("-- ").append(entry.file.getName()).append('\n');
+			expected.append(FileUtils.readFileToString(entry.file, "UTF-8"));
+		}
+		return expected.toString();
+	}
+
+	static MergeWriter createWriter(File target, Charset sourceCharset, Charset targetCharset, Compression compression, boolean detectCharsets,
+			boolean decompressSources) throws IOException {
+		return new MergeWriter(target, sourceCharset, targetCharset, compression, SeparatorTemplate.compile(SEPARATOR),
+				Collections.<ContentTransform> emptyList(), detectCharsets, decompressSources);
+	}
+
+	private static void append(MergeWriter writer, List<MergeEntry> entries) throws IOException {
+		try {
+			for (MergeEntry entry : entries) {
+				writer.append(entry);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static byte[] gunzip(File file) throws IOException {
+		InputStream input = null;
+		try {
+			input = new GZIPInputStream(new FileInputStream(file));
+			return IOUtils.toByteArray(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	static File createTempDir(String prefix) throws IOException {
+		File dir = File.createTempFile(prefix, "");
+		if (!dir.delete() || !dir.mkdir()) {
+			throw new IOException("Failed to create the directory: " + dir.getAbsolutePath());
+		}
+		return dir;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The OrderingMatcherTest checks that the OrderingMatcher matches the same ordering name as checking each of them
+ * in turn with String.contains, both when the names are checked in turn and when they are compiled into an automaton
+ * @version $Id$
+ * @author conorroche
+ */
+public class OrderingMatcherTest extends TestCase {
+
+	private static final List<String> DOC_NAMES = Arrays.asList("create-schema", "schema-objects", "indices", "data");
+
+	/**
+	 * This tests that the first listed name wins when a file name contains several of them
+	 */
+	public void testFirstListedNameWins() {
+		List<String> names = Arrays.asList("schema-data", "data", "obj", "schema");
+		for (int threshold : new int[] { 0, Integer.MAX_VALUE }) {
+			OrderingMatcher matcher = new OrderingMatcher(names, threshold);
+			assertEquals("schema-data", matcher.matchName("01-schema-data.sql"));
+			assertEquals(0, matcher.match("01-schema-data.sql"));
+			assertEquals("data", matcher.matchName("seed-data.sql"));
+			assertEquals("obj", matcher.matchName("schema-obj.sql"));
+			assertEquals(3, matcher.match("schema.sql"));
+			assertNull(matcher.matchName("upgrade.sql"));
+			assertEquals(-1, matcher.match("upgrade.sql"));
+		}
+	}
+
+	/**
+	 * This tests that names which are suffixes or prefixes of each other are found inside longer names
+	 */
+	public void testOverlappingNames() {
+		List<String> names = Arrays.asList("abcd", "bcx", "cd", "b");
+		OrderingMatcher automaton = new OrderingMatcher(names, 0);
+		assertEquals("abcd", automaton.matchName("xxabcdxx"));
+		assertEquals("bcx", automaton.matchName("abcx"));
+		assertEquals("cd", automaton.matchName("xcd"));
+		assertEquals("b", automaton.matchName("abcy"));
+		assertNull(automaton.matchName(""));
+	}
+
+	/**
+	 * This tests that the automaton and the names checked in turn match the same name as the String.contains loop
+	 * the OrderingMatcher replaced for generated names and lists of names either side of the automaton threshold
+	 */
+	public void testMatchesContainsLoop() {
+		Random random = new Random(20120101L);
+		for (int count : new int[] { 1, 4, OrderingMatcher.AUTOMATON_THRESHOLD - 1, OrderingMatcher.AUTOMATON_THRESHOLD, 200 }) {
+			List<String> names = getOrderingNames(count, random);
+			OrderingMatcher matcher = new OrderingMatcher(names);
+			OrderingMatcher automaton = new OrderingMatcher(names, 0);
+			OrderingMatcher loop = new OrderingMatcher(names, Integer.MAX_VALUE);
+			for (int i = 0; i < 2000; i++) {
+				String fileName = getFileName(random, names);
+				String expected = matchContains(names, fileName);
+				assertEquals(fileName, expected, matcher.matchName(fileName));
+				assertEquals(fileName, expected, automaton.matchName(fileName));
+				assertEquals(fileName, expected, loop.matchName(fileName));
+			}
+		}
+	}
+
+	private static List<String> getOrderingNames(int count, Random random) {
+		List<String> names = new ArrayList<String>(DOC_NAMES.subList(0, Math.min(count, DOC_NAMES.size())));
+		while (names.size() < count) {
+			// short names from a small alphabet so they overlap each other and the file names
+			StringBuilder name = new StringBuilder();
+			int length = 1 + random.nextInt(4);
+			for (int i = 0; i < length; i++) {
+				name.append((char) ('a' + random.nextInt(4)));
+			}
+			names.add(random.nextBoolean() ? name.toString() : "2011-Q" + (1 + random.nextInt(4)) + "." + name);
+		}
+		return names;
+	}
+
+	private static String getFileName(Random random, List<String> names) {
+		StringBuilder name = new StringBuilder();
+		int parts = random.nextInt(4);
+		for (int i = 0; i < parts; i++) {
+			if (random.nextBoolean()) {
+				name.append(names.get(random.nextInt(names.size())));
+			} else {
+				name.append((char) ('a' + random.nextInt(6)));
+			}
+		}
+		return name.append(".sql").toString();
+	}
+
+	private static String matchContains(List<String> names, String fileName) {
+		for (String name : names) {
+			if (fileName.contains(name)) {
+				return name;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The SharedSourceWriterTest checks the order the source files of several merges are read in and that the target
+ * files written from shared reads match the ones written by each merge on its own
+ * @version $Id$
+ * @author conorroche
+ */
+public class SharedSourceWriterTest extends TestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		this.dir = MergeWriterTest.createTempDir("shared-source-writer-test");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.dir);
+	}
+
+	/**
+	 * This tests that the order keeps the order of every merge and holds each file once
+	 */
+	public void testOrderKeepsTheOrderOfEveryMerge() {
+		File a = new File(this.dir, "a.sql");
+		File b = new File(this.dir, "b.sql");
+		File c = new File(this.dir, "c.sql");
+		File d = new File(this.dir, "d.sql");
+		List<List<MergeEntry>> entryLists = new ArrayList<List<MergeEntry>>();
+		entryLists.add(getEntries(a, c, d));
+		entryLists.add(getEntries(b, c));
+		entryLists.add(getEntries(a, b, d));
+		List<File> order = SharedSourceWriter.order(entryLists);
+		assertEquals(Arrays.asList(a, b, c, d), order);
+	}
+
+	/**
+	 * This tests that there is no order when the merges append the files they share in a different order or a merge
+	 * appends a file more than once
+	 */
+	public void testNoOrderForConflictingMerges() {
+		File a = new File(this.dir, "a.sql");
+		File b = new File(this.dir, "b.sql");
+		List<List<MergeEntry>> entryLists = new ArrayList<List<MergeEntry>>();
+		entryLists.add(getEntries(a, b));
+		entryLists.add(getEntries(b, a));
+		assertNull(SharedSourceWriter.order(entryLists));
+
+		entryLists.clear();
+		entryLists.add(getEntries(a, b, a));
+		assertNull(SharedSourceWriter.order(entryLists));
+	}
+
+	/**
+	 * This tests that the target files written from shared reads are the same as those written by each merge on its own,
+	 * with targets that copy the files as they are, transcode them, compress them, detect their charsets and decompress
+	 * the compressed sources
+	 * @throws IOException If the files could not be merged
+	 */
+	public void testSharedReadsMatchSeparateMerges() throws IOException {
+		File a = writeSource("a.sql", "create table a;\n");
+		File b = writeSource("b.sql", "insert into a values ('caf\u00e9');\n");
+		File c = new File(this.dir, "c.sql.gz");
+		OutputStream output = new GZIPOutputStream(FileUtils.openOutputStream(c));
+		try {
+			output.write("insert into a values (1);\n".getBytes(UTF_8));
+		} finally {
+			output.close();
+		}
+		List<List<MergeEntry>> entryLists = new ArrayList<List<MergeEntry>>();
+		entryLists.add(getEntries(a, b, c));
+		entryLists.add(getEntries(b, c));
+		entryLists.add(getEntries(a, c));
+		entryLists.add(getEntries(a, b));
+		entryLists.add(getEntries(b, c));
+
+		List<MergeWriter> shared = createWriters("shared");
+		List<MergeWriter> separate = createWriters("separate");
+		List<File> order = SharedSourceWriter.order(entryLists);
+		try {
+			SharedSourceWriter.write(order, entryLists, shared);
+			for (int i = 0; i < entryLists.size(); i++) {
+				for (MergeEntry entry : entryLists.get(i)) {
+					separate.get(i).append(entry);
+				}
+			}
+		} finally {
+			for (int i = 0; i < shared.size(); i++) {
+				shared.get(i).close();
+				separate.get(i).close();
+			}
+		}
+		for (int i = 0; i < entryLists.size(); i++) {
+			byte[] expected = read(new File(this.dir, "separate-" + i + ".out"));
+			assertTrue("target: " + i, Arrays.equals(expected, read(new File(this.dir, "shared-" + i + ".out"))));
+		}
+	}
+
+	private List<MergeWriter> createWriters(String prefix) throws IOException {
+		List<MergeWriter> writers = new ArrayList<MergeWriter>();
+		writers.add(MergeWriterTest.createWriter(new File(this.dir, prefix + "-0.out"), UTF_8, UTF_8, Compression.NONE, false, false));
+		writers.add(MergeWriterTest.createWriter(new File(this.dir, prefix + "-1.out"), UTF_8, Charset.forName("ISO-8859-1"), Compression.NONE,
+				false, false));
+		writers.add(MergeWriterTest.createWriter(new File(this.dir, prefix + "-2.out"), UTF_8, UTF_8, Compression.GZIP, false, false));
+		writers.add(MergeWriterTest.createWriter(new File(this.dir, prefix + "-3.out"), UTF_8, UTF_8, Compression.NONE, true, false));
+		writers.add(MergeWriterTest.createWriter(new File(this.dir, prefix + "-4.out"), UTF_8, UTF_8, Compression.NONE, false, true));
+		return writers;
+	}
+
+	/**
+	 * This reads the content of the given target file decompressing it if it was written by the compressing writer
+	 * @param file The target file
+	 * @return The content of the target file
+	 * @throws IOException If the file could not be read
+	 */
+	private static byte[] read(File file) throws IOException {
+		if (!file.getName().endsWith("-2.out")) {
+			return FileUtils.readFileToByteArray(file);
+		}
+		InputStream input = null;
+		try {
+			input = new GZIPInputStream(new FileInputStream(file));
+			return IOUtils.toByteArray(input);
+		} finally {
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	private File writeSource(String name, String content) throws IOException {
+		File file = new File(this.dir, name);
+		FileUtils.writeStringToFile(file, content, "UTF-8");
+		return file;
+	}
+
+	private List<MergeEntry> getEntries(File... files) {
+		List<MergeEntry> entries = new ArrayList<MergeEntry>();
+		for (File file : files) {
+			entries.add(new MergeEntry(file, null, this.dir));
+		}
+		return entries;
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 20100 Conor Roche
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package croche.maven.plugin.merge;
+
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+/**
+ * The TranscoderTest checks how the charset of a file is detected from its byte order mark and which target charsets
+ * write a byte order mark of their own
+ * @version $Id$
+ * @author conorroche
+ */
+public class TranscoderTest extends TestCase {
+
+	/**
+	 * This tests that each byte order mark is detected along with its length
+	 */
+	public void testDetectCharset() {
+		assertDetected("UTF-8", 3, 0xEF, 0xBB, 0xBF, 'a');
+		assertDetected("UTF-16BE", 2, 0xFE, 0xFF, 0, 'a');
+		assertDetected("UTF-16LE", 2, 0xFF, 0xFE, 'a', 0);
+		assertDetected("UTF-32BE", 4, 0, 0, 0xFE, 0xFF);
+		assertDetected("UTF-32LE", 4, 0xFF, 0xFE, 0, 0);
+	}
+
+	/**
+	 * This tests that files which are shorter than a byte order mark or do not start with one have no detected charset
+	 */
+	public void testDetectCharsetWithoutByteOrderMark() {
+		assertNull(Transcoder.detectCharset(toBytes('s', 'e', 'l', 'e'), 4));
+		assertNull(Transcoder.detectCharset(toBytes(0xEF, 0xBB, 0, 0), 2));
+		assertNull(Transcoder.detectCharset(toBytes(0xFE, 0, 0, 0), 1));
+		assertNull(Transcoder.detectCharset(toBytes(0, 0, 0, 0), 0));
+		// only the first two bytes of a UTF-32 little endian mark were read so it is taken as UTF-16
+		assertEquals(Charset.forName("UTF-16LE"), Transcoder.detectCharset(toBytes(0xFF, 0xFE, 0, 0), 2));
+		// a UTF-32 big endian mark needs all four bytes
+		assertNull(Transcoder.detectCharset(toBytes(0, 0, 0xFE, 0xFF), 3));
+	}
+
+	/**
+	 * This tests which charsets write a byte order mark when they encode
+	 */
+	public void testWritesByteOrderMark() {
+		assertTrue(Transcoder.writesByteOrderMark(Charset.forName("UTF-16")));
+		assertFalse(Transcoder.writesByteOrderMark(Charset.forName("UTF-16LE")));
+		assertFalse(Transcoder.writesByteOrderMark(Charset.forName("UTF-8")));
+		assertFalse(Transcoder.writesByteOrderMark(Charset.forName("ISO-8859-1")));
+	}
+
+	private static void assertDetected(String charsetName, int bomLength, int... head) {
+		Charset charset = Transcoder.detectCharset(toBytes(head), head.length);
+		assertEquals(Charset.forName(charsetName), charset);
+		assertEquals(bomLength, Transcoder.getBomLength(charset));
+	}
+
+	private static byte[] toBytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			bytes[i] = (byte) values[i];
+		}
+		return bytes;
+	}
+
+}